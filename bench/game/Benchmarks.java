@@ -0,0 +1,291 @@
+package game;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the speed and memory use of the game's hot paths, so that
+ * changes to them can be compared before and after.
+ *
+ * Every benchmark is warmed up, then run in batches for a fixed time. The
+ * report gives the throughput in operations per second and the bytes
+ * allocated per operation and per second, from the same per-thread
+ * allocation counter that the JMH gc profiler reads. Benchmarks that work
+ * on playGrid are also run on boards several times larger than 56 cards,
+ * and the benchmarks of single moves are also run on a board of 8 suits of
+ * 26 cards, which must take about as long per move as the standard one.
+ *
+ * Usage, from the project directory:
+ *   javac -d bin src/game/*.java bench/game/*.java
+ *   java -Djava.awt.headless=true -cp bin game.Benchmarks [name filter]
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class Benchmarks {
+	// time spent on each benchmark
+	private static final long WARMUP_NANOS = 1000000000L;
+	private static final long MEASURE_NANOS = 2000000000L;
+	// board sizes for the benchmarks that can use larger boards
+	private static final int[] SIZES = { 56, 224, 896 };
+	// board shapes for the benchmarks of single moves
+	private static final BoardShape[] SHAPES = { BoardShape.STANDARD,
+			BoardShape.of(8, 26) };
+
+	// results are written here, so the JIT cannot remove the work
+	private static volatile long sink;
+
+	/**
+	 * A single benchmark, run on a board of a given size.
+	 */
+	private abstract static class Case {
+		final String name;
+		final int size;
+		final BoardShape shape;
+
+		Case(String name, int size) {
+			this(name, size, BoardShape.STANDARD);
+		}
+
+		Case(String name, BoardShape shape) {
+			this(name, shape.getSlots(), shape);
+		}
+
+		Case(String name, int size, BoardShape shape) {
+			this.name = name;
+			this.size = size;
+			this.shape = shape;
+		}
+
+		/**
+		 * Prepares the game state before the benchmark is run.
+		 */
+		void setup() throws Exception {
+			Main.setShape(shape);
+			Main.board.deal(Main.random);
+			Main.journal.reset(Main.board);
+			Main.syncGrid();
+		}
+
+		/**
+		 * Performs one operation.
+		 *
+		 * @param i is the number of the operation
+		 * @return any value computed, which is kept from being optimized away
+		 */
+		abstract long run(int i) throws Exception;
+	}
+
+	/**
+	 * Runs every benchmark whose name contains the filter.
+	 *
+	 * @param args is an optional name filter
+	 */
+	public static void main(String[] args) throws Exception {
+		String filter = args.length > 0 ? args[0] : "";
+		Main.loadImages();
+
+		List<Case> cases = new ArrayList<Case>();
+		for (final int size : SIZES) {
+			cases.add(new Case("getCardIndex", size) {
+				void setup() throws Exception {
+					super.setup();
+					layOut(size);
+				}
+
+				long run(int i) {
+					int index = ((i * 31) & Integer.MAX_VALUE) % size;
+					return Main.getCardIndex(Main.getCard(index));
+				}
+			});
+		}
+		for (BoardShape shape : SHAPES) {
+			addMoveCases(cases, shape);
+		}
+		for (final String extension : new String[] { "carpet", "xml" }) {
+			cases.add(new Case("saveLoad." + extension, BoardShape.STANDARD) {
+				File file;
+
+				void setup() throws Exception {
+					super.setup();
+					file = File.createTempFile("carpet", "." + extension);
+					file.deleteOnExit();
+				}
+
+				long run(int i) {
+					Main.save(file);
+					Main.load(file);
+					return Main.board.get(0);
+				}
+			});
+		}
+
+		System.out.printf("%-16s %6s %14s %12s %12s%n", "Benchmark", "size",
+				"ops/s", "B/op", "MB/s alloc");
+		for (Case c : cases) {
+			if (c.name.contains(filter)) {
+				measure(c);
+			}
+		}
+	}
+
+	/**
+	 * Adds the benchmarks of single moves on a board of the given shape.
+	 */
+	private static void addMoveCases(List<Case> cases,
+			final BoardShape shape) {
+		cases.add(new Case("swapCards", shape) {
+			long run(int i) {
+				// the journal would otherwise grow without limit
+				if (Main.journal.getSize() > 10000) {
+					Main.journal.reset(Main.board);
+				}
+				Main.swapCards(Main.getCard(1), Main.getCard(2));
+				return Main.journal.getCurrent();
+			}
+		});
+		cases.add(new Case("nearestSlot", shape) {
+			long run(int i) {
+				// where a card dropped a little off its slot would land
+				int slot = i % shape.getSlots();
+				return Main.geometry.nearestSlot(
+						Main.geometry.getX(slot) + Main.CARD_WIDTH / 2 + 7,
+						Main.geometry.getY(slot) + Main.CARD_HEIGHT / 2 - 5,
+						slot);
+			}
+		});
+		cases.add(new Case("recordSwap", shape) {
+			long run(int i) {
+				if (Main.journal.getSize() > 10000) {
+					Main.journal.reset(Main.board);
+				}
+				Main.board.swap(1, 2);
+				Main.journal.recordSwap(1, 2);
+				return Main.journal.getCurrent();
+			}
+		});
+		cases.add(new Case("undoRedo", shape) {
+			void setup() throws Exception {
+				super.setup();
+				for (int i = 0; i < 1000; i++) {
+					Main.board.swap(i % 50, i % 50 + 1);
+					Main.journal.recordSwap(i % 50, i % 50 + 1);
+				}
+			}
+
+			long run(int i) {
+				Main.journal.undo(Main.board);
+				Main.journal.redo(Main.board);
+				return Main.journal.getCurrent();
+			}
+		});
+		cases.add(new Case("shuffleAction", shape) {
+			long run(int i) {
+				// the same steps as the Shuffle menu action
+				if (Main.journal.getSize() > 10000) {
+					Main.journal.reset(Main.board);
+				}
+				short[] before = new short[shape.getSlots()];
+				Main.board.getCells(before);
+				Main.board.shuffle(Main.random);
+				Main.journal.recordShuffle(before, Main.board);
+				Main.syncGrid();
+				Main.redrawInPlace();
+				return Main.board.get(0);
+			}
+		});
+		cases.add(new Case("moveTargets", shape) {
+			final int[] moves = new int[MoveGenerator.maxMoves(shape)];
+			final int[] targets = new int[shape.getSuits()];
+
+			long run(int i) {
+				// what a drag asks for, plus a full list of moves
+				return MoveGenerator.targets(Main.board, i % shape.getSlots(),
+						targets) + MoveGenerator.generate(Main.board, moves);
+			}
+		});
+		cases.add(new Case("checkWin", shape) {
+			long run(int i) {
+				return Main.checkWin();
+			}
+		});
+		cases.add(new Case("canonicalKey", shape) {
+			final CanonicalCodec codec = new CanonicalCodec(shape);
+
+			long run(int i) {
+				return codec.hash(Main.board);
+			}
+		});
+	}
+
+	/**
+	 * Replaces playGrid with a board of the given size, 14 to a row.
+	 */
+	private static void layOut(int size) {
+		List<CardImage> grid = new ArrayList<CardImage>(size);
+		int columns = BoardShape.STANDARD.getColumns();
+		for (int i = 0; i < size; i++) {
+			CardImage card = i < BoardShape.STANDARD.getSlots()
+					? Main.getCard(i)
+					: new CardImage(1 + i % 4, 1 + i % 13, true);
+			grid.add(card);
+		}
+		Main.playGrid = grid;
+		Main.indexGrid();
+		Main.geometry = new BoardGeometry(columns,
+				(size + columns - 1) / columns);
+	}
+
+	/**
+	 * Warms up a benchmark, then measures and prints its results.
+	 */
+	private static void measure(Case c) throws Exception {
+		c.setup();
+		run(c, WARMUP_NANOS);
+		c.setup();
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)
+				ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long ops = run(c, MEASURE_NANOS);
+		long nanos = System.nanoTime() - start;
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+		System.out.printf("%-16s %6d %14.1f %12.1f %12.1f%n", c.name, c.size,
+				ops * 1e9 / nanos, (double)bytes / ops,
+				bytes * 1e3 / nanos);
+	}
+
+	/**
+	 * Runs a benchmark in batches until the time is up.
+	 *
+	 * @return the number of operations performed
+	 */
+	private static long run(Case c, long nanos) throws Exception {
+		long end = System.nanoTime() + nanos;
+		long ops = 0;
+		int batch = 1;
+		long total = 0;
+		long now = System.nanoTime();
+		while (now < end) {
+			for (int i = 0; i < batch; i++) {
+				total += c.run((int)(ops + i));
+			}
+			ops += batch;
+
+			// grow the batch until it takes about 10ms
+			long last = now;
+			now = System.nanoTime();
+			if (now - last < 10000000L) {
+				batch <<= 1;
+			}
+		}
+		sink = total;
+		return ops;
+	}
+}
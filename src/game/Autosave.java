@@ -0,0 +1,479 @@
+package game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Keeps the game being played in a small file as it is played, so that it
+ * can be picked up again after the program is closed or crashes.
+ *
+ * The file is only ever added to. It starts with a record of the start of
+ * the game: the deal ID, the number of shuffles and the starting layout,
+ * followed by one small record for every swap, shuffle, undo and redo.
+ * Starting a new game starts the file again, so it only ever holds a few
+ * KB. Records are copied into a buffer on the calling thread, and a
+ * background thread writes them out and forces them to the disk, at most
+ * once every SYNC_INTERVAL milliseconds, so that a burst of moves shares a
+ * single write. The player never waits for the disk.
+ *
+ * Reading the file back replays it into a MoveJournal in a single pass. A
+ * record cut short by a crash, and anything after it, is ignored.
+ *
+ * On the standard board every position and cell takes a byte. A game on
+ * a board of any other size is written as version 2, with the number of
+ * suits and ranks after the number of shuffles, and a short for every
+ * position and cell.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class Autosave implements Runnable {
+	/**
+	 * The shortest time, in milliseconds, between forcing writes to the
+	 * disk.
+	 */
+	public static final int SYNC_INTERVAL = 250;
+
+	private static final int MAGIC = 0x43524A4C; // "CRJL"
+	private static final int VERSION = 1;
+	private static final int WIDE_VERSION = 2;
+	// magic, version, deal ID and shuffles, before the starting layout
+	private static final int HEADER = 4 + 1 + 8 + 1;
+	// the kinds of record after the header
+	private static final int SWAP = 1;
+	private static final int SHUFFLE = 2;
+	private static final int UNDO = 3;
+	private static final int REDO = 4;
+
+	private final File file;
+	// guards everything below; never held while writing to the file
+	private final Object lock = new Object();
+	// records not yet written, and the buffer being written
+	private ByteBuffer pending = ByteBuffer.allocate(4096);
+	private ByteBuffer writing = ByteBuffer.allocate(4096);
+	// true if the file must be emptied before pending is written
+	private boolean restart;
+	private boolean open;
+	private boolean closed;
+	// true while the writer is waiting for records
+	private boolean idle;
+	private Thread writer;
+	// true if positions and cells of the game take a short each
+	private boolean wide;
+
+	/**
+	 * @param file is where the game is kept; nothing is written to it until
+	 *  open is called
+	 */
+	public Autosave(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the file where the game is kept
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	//=========================================================================
+	// Writing
+	//=========================================================================
+
+	/**
+	 * Starts the background thread that writes records. Until this is
+	 * called, records are ignored.
+	 */
+	public void open() {
+		synchronized (lock) {
+			if (open || closed) {
+				return;
+			}
+			open = true;
+			writer = new Thread(this, "Autosave");
+			writer.setDaemon(true);
+			writer.start();
+		}
+	}
+
+	/**
+	 * Writes every record made so far, forces it to the disk and stops the
+	 * background thread, waiting up to a second for it.
+	 */
+	public void close() {
+		Thread thread;
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+			thread = writer;
+		}
+		if (thread != null) {
+			try {
+				thread.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Starts the file again with a game: its starting layout and every
+	 * entry of its journal, including those that have been undone.
+	 *
+	 * @param journal is the journal of the game
+	 * @param dealId is the ID of the deal being played
+	 * @param startShuffles is the number of shuffles the game started with
+	 */
+	public void start(MoveJournal journal, long dealId, int startShuffles) {
+		synchronized (lock) {
+			if (!open) {
+				return;
+			}
+			// anything not yet written belonged to the last game
+			pending.clear();
+			restart = true;
+			BoardShape shape = journal.getShape();
+			wide = !shape.isStandard();
+			short[] cells = new short[shape.getSlots()];
+			journal.getStartCells(cells);
+			reserve(HEADER + 2);
+			pending.putInt(MAGIC).put((byte)(wide ? WIDE_VERSION : VERSION))
+					.putLong(dealId).put((byte)startShuffles);
+			if (wide) {
+				pending.put((byte)shape.getSuits())
+						.put((byte)shape.getRanks());
+			}
+			putCells(cells);
+			for (int i = 0; i < journal.getSize(); i++) {
+				if (journal.getKind(i) == MoveJournal.SWAP) {
+					putSwap(journal.getSwapA(i), journal.getSwapB(i));
+				} else {
+					putShuffle(journal.getPermutation(i));
+				}
+			}
+			for (int i = journal.getCurrent(); i < journal.getSize(); i++) {
+				reserve(1);
+				pending.put((byte)UNDO);
+			}
+			wake();
+		}
+	}
+
+	/**
+	 * Records a swap, as recorded by MoveJournal.recordSwap.
+	 *
+	 * @param a is the first position swapped
+	 * @param b is the second position swapped
+	 */
+	public void swap(int a, int b) {
+		synchronized (lock) {
+			if (open) {
+				putSwap(a, b);
+				wake();
+			}
+		}
+	}
+
+	/**
+	 * Records a shuffle, as recorded by MoveJournal.recordShuffle.
+	 *
+	 * @param permutation is the permutation of the shuffle, as returned by
+	 *  MoveJournal.getPermutation
+	 */
+	public void shuffle(short[] permutation) {
+		synchronized (lock) {
+			if (open) {
+				putShuffle(permutation);
+				wake();
+			}
+		}
+	}
+
+	/**
+	 * Records that the last entry of the journal was undone.
+	 */
+	public void undo() {
+		put(UNDO);
+	}
+
+	/**
+	 * Records that the last entry of the journal that was undone was
+	 * redone.
+	 */
+	public void redo() {
+		put(REDO);
+	}
+
+	/**
+	 * Writes records to the file as they are made, until closed.
+	 */
+	public void run() {
+		FileChannel channel = null;
+		try {
+			channel = new RandomAccessFile(file, "rw").getChannel();
+			channel.position(channel.size());
+			while (true) {
+				boolean truncate;
+				synchronized (lock) {
+					idle = true;
+					while (pending.position() == 0 && !restart && !closed) {
+						lock.wait();
+					}
+					idle = false;
+					if (pending.position() == 0 && !restart) {
+						break;
+					}
+					ByteBuffer full = pending;
+					pending = writing;
+					writing = full;
+					truncate = restart;
+					restart = false;
+				}
+				if (truncate) {
+					channel.truncate(0);
+					channel.position(0);
+				}
+				writing.flip();
+				while (writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				writing.clear();
+				channel.force(false);
+
+				// let the records made in the meantime share the next write;
+				// only close ends this early
+				synchronized (lock) {
+					if (!closed) {
+						lock.wait(SYNC_INTERVAL);
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			// nothing more can be written
+		} finally {
+			synchronized (lock) {
+				open = false;
+			}
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records an entry that is only its kind.
+	 */
+	private void put(int kind) {
+		synchronized (lock) {
+			if (open) {
+				reserve(1);
+				pending.put((byte)kind);
+				wake();
+			}
+		}
+	}
+
+	private void putSwap(int a, int b) {
+		reserve(5);
+		pending.put((byte)SWAP);
+		if (wide) {
+			pending.putShort((short)a).putShort((short)b);
+		} else {
+			pending.put((byte)a).put((byte)b);
+		}
+	}
+
+	private void putShuffle(short[] permutation) {
+		reserve(1);
+		pending.put((byte)SHUFFLE);
+		putCells(permutation);
+	}
+
+	/**
+	 * Records cells or a permutation, a short each if wide and otherwise a
+	 * byte each.
+	 */
+	private void putCells(short[] cells) {
+		reserve(cells.length * 2);
+		for (int i = 0; i < cells.length; i++) {
+			if (wide) {
+				pending.putShort(cells[i]);
+			} else {
+				pending.put((byte)cells[i]);
+			}
+		}
+	}
+
+	/**
+	 * Makes room for a number of bytes in pending.
+	 */
+	private void reserve(int bytes) {
+		if (pending.remaining() < bytes) {
+			int capacity = Math.max(pending.capacity() * 2,
+					pending.position() + bytes);
+			ByteBuffer larger = ByteBuffer.allocate(capacity);
+			pending.flip();
+			larger.put(pending);
+			pending = larger;
+		}
+	}
+
+	/**
+	 * Wakes the writer if it is waiting for records.
+	 */
+	private void wake() {
+		if (idle) {
+			lock.notifyAll();
+		}
+	}
+
+	//=========================================================================
+	// Reading
+	//=========================================================================
+
+	/**
+	 * Reads back the game kept in the file.
+	 *
+	 * @return the game, with its journal and deal ID, or null if the file
+	 *         does not hold a game
+	 */
+	public GameFile recover() {
+		if (!file.isFile()) {
+			return null;
+		}
+		ByteBuffer in;
+		try {
+			in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		if (in.remaining() < HEADER + 2 || in.getInt() != MAGIC) {
+			return null;
+		}
+		int version = in.get();
+		boolean wide = version == WIDE_VERSION;
+		if (version != VERSION && !wide) {
+			return null;
+		}
+		long dealId = in.getLong();
+		int startShuffles = in.get();
+		BoardShape shape = BoardShape.STANDARD;
+		BoardState board;
+		short[] start;
+		try {
+			if (wide) {
+				shape = BoardShape.of(in.get(), in.get());
+			}
+			start = new short[shape.getSlots()];
+			if (!getCells(in, start, wide)) {
+				return null;
+			}
+			board = new BoardState(shape);
+			board.setCells(start);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (startShuffles < 0 || startShuffles > Solver.MAX_SHUFFLES) {
+			return null;
+		}
+
+		MoveJournal journal = new MoveJournal();
+		journal.reset(board);
+		short[] before = new short[start.length];
+		short[] after = new short[start.length];
+		boolean[] used = new boolean[start.length];
+		while (replay(in, board, journal, wide, before, after, used)) {
+			// each record has been made to the board and the journal
+		}
+		// a game cannot have been shuffled more than it could be, even if
+		// some of its shuffles have been undone
+		if (journal.countAllShuffles() > startShuffles) {
+			return null;
+		}
+		GameFile game = new GameFile(board,
+				startShuffles - journal.countShuffles(), startShuffles,
+				journal);
+		game.setDealId(dealId);
+		return game;
+	}
+
+	/**
+	 * Makes the change of the next record to the board and the journal.
+	 *
+	 * @return false if there are no more records, or the next one is not
+	 *         whole or not valid
+	 */
+	private static boolean replay(ByteBuffer in, BoardState board,
+			MoveJournal journal, boolean wide, short[] before, short[] after,
+			boolean[] used) {
+		if (!in.hasRemaining()) {
+			return false;
+		}
+		int slots = before.length;
+		switch (in.get()) {
+		case SWAP:
+			if (in.remaining() < (wide ? 4 : 2)) {
+				return false;
+			}
+			int a = wide ? in.getShort() : in.get();
+			int b = wide ? in.getShort() : in.get();
+			if (a < 0 || a >= slots || b < 0 || b >= slots) {
+				return false;
+			}
+			board.swap(a, b);
+			journal.recordSwap(a, b);
+			return true;
+		case SHUFFLE:
+			board.getCells(before);
+			if (!getCells(in, after, wide)) {
+				return false;
+			}
+			Arrays.fill(used, false);
+			for (int i = 0; i < slots; i++) {
+				int from = after[i];
+				if (from < 0 || from >= slots || used[from]) {
+					return false;
+				}
+				used[from] = true;
+				after[i] = before[from];
+			}
+			board.setCells(after);
+			journal.recordShuffle(before, board);
+			return true;
+		case UNDO:
+			return journal.undo(board) >= 0;
+		case REDO:
+			return journal.redo(board) >= 0;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Reads cells or a permutation written by putCells.
+	 *
+	 * @return false if the buffer does not hold them all
+	 */
+	private static boolean getCells(ByteBuffer in, short[] cells,
+			boolean wide) {
+		if (in.remaining() < cells.length * (wide ? 2 : 1)) {
+			return false;
+		}
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = wide ? in.getShort() : in.get();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,97 @@
+package game;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs slow work, such as reading and writing files, away from the Swing
+ * event thread, and hands each result back to the event thread.
+ *
+ * Tasks run one at a time, in the order they were submitted, so that two
+ * saves of the same file can never overlap. They run on a virtual thread
+ * when the JVM has them, found by reflection so that the game still runs
+ * on older versions, and on a daemon thread otherwise.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class Background {
+	/**
+	 * Receives the result of a task on the event thread.
+	 *
+	 * @param <T> is the type of the result
+	 */
+	public interface Callback<T> {
+		/**
+		 * @param result is the result of the task, or null if it failed
+		 * @param error is what the task threw, or null if it succeeded
+		 */
+		void done(T result, Exception error);
+	}
+
+	private static final ExecutorService EXECUTOR =
+			Executors.newSingleThreadExecutor(createThreadFactory());
+
+	/**
+	 * Not used; every method is static.
+	 */
+	private Background() {
+	}
+
+	/**
+	 * Runs a task in the background, then its callback on the event thread.
+	 *
+	 * @param task is the work to do, which must not touch Swing or anything
+	 *  the event thread changes
+	 * @param callback receives the result
+	 */
+	public static <T> void submit(final Callable<T> task,
+			final Callback<T> callback) {
+		EXECUTOR.execute(new Runnable() {
+			public void run() {
+				T result = null;
+				Exception error = null;
+				try {
+					result = task.call();
+				} catch (Exception e) {
+					error = e;
+				}
+				final T finalResult = result;
+				final Exception finalError = error;
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						callback.done(finalResult, finalError);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * @return a factory for virtual threads if the JVM has them, and for
+	 *         daemon threads otherwise
+	 */
+	private static ThreadFactory createThreadFactory() {
+		try {
+			// Thread.ofVirtual().name("Background").factory()
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+			virtual = builder.getMethod("name", String.class).invoke(virtual,
+					"Background");
+			return (ThreadFactory)builder.getMethod("factory").invoke(virtual);
+		} catch (Exception e) {
+			// virtual threads are not available
+		}
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Background");
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,163 @@
+package game;
+
+import java.awt.Rectangle;
+
+/**
+ * Converts between positions in the grid and pixel locations on screen.
+ * Every slot is CARD_WIDTH by CARD_HEIGHT, with CARD_GAP pixels between
+ * slots and BORDER pixels around the whole grid, so a location can be
+ * turned into a slot with arithmetic alone, no matter how large the grid
+ * is.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class BoardGeometry {
+	/**
+	 * The distance in pixels from the left of one slot to the next.
+	 */
+	public static final int PITCH_X = Main.CARD_WIDTH + Main.CARD_GAP;
+	/**
+	 * The distance in pixels from the top of one slot to the next.
+	 */
+	public static final int PITCH_Y = Main.CARD_HEIGHT + Main.CARD_GAP;
+
+	// fields
+	private final int columns;
+	private final int rows;
+
+	/**
+	 * @param columns is the number of slots in each row
+	 * @param rows is the number of rows
+	 */
+	public BoardGeometry(int columns, int rows) {
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	/**
+	 * @return the number of slots in each row
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * @return the width in pixels of the whole grid, including the border
+	 */
+	public int getWidth() {
+		return PITCH_X * columns + Main.BORDER + Main.BORDER;
+	}
+
+	/**
+	 * @return the height in pixels of the whole grid, including the border
+	 */
+	public int getHeight() {
+		return PITCH_Y * rows + Main.BORDER + Main.BORDER;
+	}
+
+	/**
+	 * @param slot is a position in the grid
+	 * @return the x coordinate of the left edge of that slot
+	 */
+	public int getX(int slot) {
+		return Main.BORDER + (slot % columns) * PITCH_X;
+	}
+
+	/**
+	 * @param slot is a position in the grid
+	 * @return the y coordinate of the top edge of that slot
+	 */
+	public int getY(int slot) {
+		return Main.BORDER + (slot / columns) * PITCH_Y;
+	}
+
+	/**
+	 * @param slot is a position in the grid
+	 * @return the area on screen covered by that slot
+	 */
+	public Rectangle getBounds(int slot) {
+		return new Rectangle(getX(slot), getY(slot), Main.CARD_WIDTH,
+				Main.CARD_HEIGHT);
+	}
+
+	/**
+	 * @param x is an x coordinate
+	 * @param y is a y coordinate
+	 * @return the slot that holds the point, or -1 if the point is in the
+	 *         border or a space between slots; nearestSlot finds the closest
+	 *         slot to a point anywhere
+	 */
+	public int slotAt(int x, int y) {
+		int column = (x - Main.BORDER) / PITCH_X;
+		int row = (y - Main.BORDER) / PITCH_Y;
+		if (x < Main.BORDER || y < Main.BORDER || column >= columns
+				|| row >= rows
+				|| x - getX(column) >= Main.CARD_WIDTH
+				|| y - getY(row * columns) >= Main.CARD_HEIGHT) {
+			return -1;
+		}
+		return row * columns + column;
+	}
+
+	/**
+	 * Finds the slot whose center is closest to a point, other than one
+	 * excluded slot. Only the slot under the point and its eight neighbours
+	 * can be closest, so this takes the same time on any size of grid.
+	 *
+	 * @param x is the x coordinate of the point
+	 * @param y is the y coordinate of the point
+	 * @param exclude is a slot that may not be returned, or -1
+	 * @return the closest slot other than exclude
+	 */
+	public int nearestSlot(int x, int y, int exclude) {
+		// measure from the center of the first slot, so that rounding to the
+		// nearest pitch gives the nearest center
+		int cx = x - Main.BORDER - Main.CARD_WIDTH / 2;
+		int cy = y - Main.BORDER - Main.CARD_HEIGHT / 2;
+		int column = clamp((cx + PITCH_X / 2) / PITCH_X, cx, columns);
+		int row = clamp((cy + PITCH_Y / 2) / PITCH_Y, cy, rows);
+		int slot = row * columns + column;
+		if (slot != exclude) {
+			return slot;
+		}
+
+		// the point is over the excluded slot, so try its neighbours
+		int nearest = exclude;
+		long best = Long.MAX_VALUE;
+		for (int r = row - 1; r <= row + 1; r++) {
+			for (int c = column - 1; c <= column + 1; c++) {
+				if (r < 0 || r >= rows || c < 0 || c >= columns
+						|| (r == row && c == column)) {
+					continue;
+				}
+				long dx = cx - c * PITCH_X;
+				long dy = cy - r * PITCH_Y;
+				long distance = dx * dx + dy * dy;
+				if (distance < best) {
+					best = distance;
+					nearest = r * columns + c;
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return index limited to 0 through count - 1, treating any negative
+	 *         offset as before the first slot
+	 */
+	private static int clamp(int index, int offset, int count) {
+		if (offset < 0) {
+			return 0;
+		}
+		return index < count ? index : count - 1;
+	}
+}
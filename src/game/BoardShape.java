@@ -0,0 +1,231 @@
+package game;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Describes the size of a carpet solitaire board: the number of suits,
+ * each dealt to a row of its own, and the number of cards in each suit.
+ * Every row has one slot more than a suit has cards, for its blank space.
+ * The standard game is one deck of 4 suits of 13 cards. Several decks are
+ * played as more suits, so two decks are 8 suits, and every card of the
+ * second deck only follows cards of its own deck.
+ *
+ * A cell value holds the suit in the bits above the face value. The face
+ * value takes as few bits as the ranks need, but never fewer than 4, so
+ * the standard board keeps the cell values it has always had. Everything
+ * that is sized by the board, such as the tables of BoardState, is sized
+ * from here, along with the keys for Zobrist hashing, which are shared by
+ * every board of this shape. Shapes are only made once for each size, by
+ * of, since the keys of a large board take megabytes.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public final class BoardShape {
+	/**
+	 * The most suits a board may have, four decks' worth.
+	 */
+	public static final int MAX_SUITS = 16;
+	/**
+	 * The most cards a suit may have, so that a face value fits in 6 bits.
+	 */
+	public static final int MAX_RANKS = 63;
+	/**
+	 * The board of the standard game, 4 suits of 13 cards.
+	 */
+	public static final BoardShape STANDARD = new BoardShape(4, 13);
+
+	// every shape made so far, keyed by hashCode, which tells them apart
+	private static final ConcurrentMap<Integer, BoardShape> SHAPES =
+			new ConcurrentHashMap<Integer, BoardShape>();
+
+	// fields
+	private final int suits;
+	private final int ranks;
+	private final int shift;
+	// one random key for every value of every slot, for Zobrist hashing
+	private final long[] zobrist;
+
+	/**
+	 * @param suits is the number of suits, and therefore rows
+	 * @param ranks is the number of cards in each suit
+	 */
+	private BoardShape(int suits, int ranks) {
+		this.suits = suits;
+		this.ranks = ranks;
+		shift = Math.max(4, 32 - Integer.numberOfLeadingZeros(ranks));
+		zobrist = new long[getSlots() * getCodes()];
+		// a fixed seed, so hashes are the same in every run
+		long seed = 0x5DEECE66DL;
+		for (int i = 0; i < zobrist.length; i++) {
+			seed += 0x9E3779B97F4A7C15L;
+			long z = seed;
+			z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+			z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+			zobrist[i] = z ^ (z >>> 31);
+		}
+	}
+
+	/**
+	 * @param suits is the number of suits, 1 to MAX_SUITS
+	 * @param ranks is the number of cards in each suit, 2 to MAX_RANKS
+	 * @return the shape of that size, the same object every time
+	 * @throws IllegalArgumentException if the size is out of range
+	 */
+	public static BoardShape of(int suits, int ranks) {
+		if (suits == STANDARD.suits && ranks == STANDARD.ranks) {
+			return STANDARD;
+		}
+		if (suits < 1 || suits > MAX_SUITS || ranks < 2
+				|| ranks > MAX_RANKS) {
+			throw new IllegalArgumentException("A board must have 1 to "
+					+ MAX_SUITS + " suits of 2 to " + MAX_RANKS + " cards.");
+		}
+		Integer key = suits * 64 + ranks;
+		BoardShape shape = SHAPES.get(key);
+		if (shape == null) {
+			// two threads may both make the shape, but only one is kept
+			BoardShape made = new BoardShape(suits, ranks);
+			shape = SHAPES.putIfAbsent(key, made);
+			if (shape == null) {
+				shape = made;
+			}
+		}
+		return shape;
+	}
+
+	/**
+	 * @param text is a size as written by toString, such as 8x26
+	 * @return the shape of that size
+	 * @throws IllegalArgumentException if text is not a valid size
+	 */
+	public static BoardShape parse(String text) {
+		String[] parts = text.trim().toLowerCase().split("x");
+		if (parts.length != 2) {
+			throw new IllegalArgumentException("Not a board size: " + text);
+		}
+		try {
+			return of(Integer.parseInt(parts[0].trim()),
+					Integer.parseInt(parts[1].trim()));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Not a board size: " + text, e);
+		}
+	}
+
+	//=========================================================================
+	// Sizes
+	//=========================================================================
+
+	/**
+	 * @return the number of suits, and therefore the number of rows
+	 */
+	public int getSuits() {
+		return suits;
+	}
+
+	/**
+	 * @return the number of cards in each suit
+	 */
+	public int getRanks() {
+		return ranks;
+	}
+
+	/**
+	 * @return the number of slots in each row, including the blank space
+	 */
+	public int getColumns() {
+		return ranks + 1;
+	}
+
+	/**
+	 * @return the total number of slots in the grid
+	 */
+	public int getSlots() {
+		return suits * (ranks + 1);
+	}
+
+	/**
+	 * @return the number of distinct cell values, used to size lookup
+	 *         tables
+	 */
+	public int getCodes() {
+		return (suits + 1) << shift;
+	}
+
+	/**
+	 * @return the face value reported for a blank space, one more than the
+	 *         highest card, matching CardImage
+	 */
+	public int getGapNumber() {
+		return ranks + 1;
+	}
+
+	/**
+	 * @return true if this is the board of the standard game
+	 */
+	public boolean isStandard() {
+		return equals(STANDARD);
+	}
+
+	//=========================================================================
+	// Encoding
+	//=========================================================================
+
+	/**
+	 * @param suit is the suit of a card, 1 to the number of suits
+	 * @param number is the face value of a card, 1 to the number of ranks
+	 * @return the cell value of that card
+	 */
+	public int code(int suit, int number) {
+		return (suit << shift) | number;
+	}
+
+	/**
+	 * @param code is a cell value
+	 * @return the suit of that cell, 0 for a blank space
+	 */
+	public int suitOf(int code) {
+		return code >> shift;
+	}
+
+	/**
+	 * @param code is a cell value
+	 * @return the face value of that cell, 0 for a blank space
+	 */
+	public int numberOf(int code) {
+		return code & ((1 << shift) - 1);
+	}
+
+	/**
+	 * @return the Zobrist keys, indexed by slot * getCodes() + cell value.
+	 *         The array must not be changed.
+	 */
+	long[] getZobrist() {
+		return zobrist;
+	}
+
+	//=========================================================================
+	// Object
+	//=========================================================================
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof BoardShape
+				&& ((BoardShape)other).suits == suits
+				&& ((BoardShape)other).ranks == ranks;
+	}
+
+	@Override
+	public int hashCode() {
+		return suits * 64 + ranks;
+	}
+
+	/**
+	 * @return the size as suits x ranks, such as 4x13
+	 */
+	@Override
+	public String toString() {
+		return suits + "x" + ranks;
+	}
+}
@@ -0,0 +1,540 @@
+package game;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Stores the layout of a carpet solitaire game without any Swing objects.
+ * The grid has a row for each suit, with a slot for each card of the suit
+ * and one more for a blank space, as described by a BoardShape. Each slot
+ * holds a single cell value: the suit in the high bits and the face value
+ * in the low bits, or 0 for a blank space.
+ * A reverse index from card to slot is kept up to date on every change, so
+ * every operation here runs without scanning the grid or allocating.
+ * A Zobrist hash of the layout is also kept up to date, so that positions
+ * can be looked up in tables without comparing every slot, along with the
+ * number of blank spaces that some card can still move into, the length of
+ * the ordered run at the start of each row, and the number of cards in
+ * their final column, so that a win is found without scanning the grid.
+ * A swap looks at no more than one row and the blank spaces, however large
+ * the board is.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class BoardState {
+	/**
+	 * The cell value of a blank space, on a board of any shape.
+	 */
+	public static final int GAP = 0;
+
+	// the size of the board, copied from shape since they are used so often
+	private final BoardShape shape;
+	private final int suits;
+	private final int ranks;
+	private final int columns;
+	private final int slots;
+	private final int codes;
+	private final int numberMask;
+	private final long[] zobrist;
+
+	// fields
+	private final short[] cells;
+	private final short[] slotOf;
+	private final short[] gaps;
+	private final short[] scratch;
+	private long hash;
+	private int liveGaps;
+	// the ordered run at the start of each row, and the total of them all
+	private final short[] locked;
+	private int lockedTotal;
+	// the number of slots whose face value matches their column
+	private int correct;
+
+	/**
+	 * Constructs a solved board of the standard game.
+	 */
+	public BoardState() {
+		this(BoardShape.STANDARD);
+	}
+
+	/**
+	 * Constructs a solved board, with every suit in order and the blank
+	 * spaces on the far right.
+	 *
+	 * @param shape is the size of the board
+	 */
+	public BoardState(BoardShape shape) {
+		this.shape = shape;
+		suits = shape.getSuits();
+		ranks = shape.getRanks();
+		columns = shape.getColumns();
+		slots = shape.getSlots();
+		codes = shape.getCodes();
+		numberMask = shape.numberOf(-1);
+		zobrist = shape.getZobrist();
+		cells = new short[slots];
+		slotOf = new short[codes];
+		gaps = new short[suits];
+		scratch = new short[slots];
+		locked = new short[suits];
+		for (int row = 0; row < suits; row++) {
+			for (int col = 0; col < ranks; col++) {
+				cells[row * columns + col] = (short)shape.code(row + 1,
+						col + 1);
+			}
+			cells[row * columns + ranks] = GAP;
+		}
+		reindex();
+	}
+
+	/**
+	 * Constructs a copy of another board.
+	 *
+	 * @param other is the board to copy
+	 */
+	public BoardState(BoardState other) {
+		this(other.shape);
+		copyFrom(other);
+	}
+
+	/**
+	 * @return the size of this board
+	 */
+	public BoardShape getShape() {
+		return shape;
+	}
+
+	//=========================================================================
+	// Queries
+	//=========================================================================
+
+	/**
+	 * @param slot is a position in the grid
+	 * @return the cell value at that position
+	 */
+	public int get(int slot) {
+		return cells[slot];
+	}
+
+	/**
+	 * @param slot is a position in the grid
+	 * @return true if that position holds a blank space
+	 */
+	public boolean isGap(int slot) {
+		return cells[slot] == GAP;
+	}
+
+	/**
+	 * @param slot is a position in the grid
+	 * @return the suit at that position, from 1 for suits, 0 for blank
+	 */
+	public int getSuit(int slot) {
+		return shape.suitOf(cells[slot]);
+	}
+
+	/**
+	 * @param slot is a position in the grid
+	 * @return the face value at that position, from 1 for cards, and
+	 *         BoardShape.getGapNumber, 14 on the standard board, for blank
+	 */
+	public int getNumber(int slot) {
+		int number = cells[slot] & numberMask;
+		return number == 0 ? ranks + 1 : number;
+	}
+
+	/**
+	 * @param suit is the suit of a card
+	 * @param number is the face value of a card
+	 * @return the position of that card in the grid
+	 */
+	public int slotOf(int suit, int number) {
+		return slotOf[shape.code(suit, number)];
+	}
+
+	/**
+	 * @param code is the cell value of a card
+	 * @return the position of that card in the grid
+	 */
+	public int slotOfCode(int code) {
+		return slotOf[code];
+	}
+
+	/**
+	 * @param i is which blank space to look up, one for each suit
+	 * @return the position of that blank space in the grid
+	 */
+	public int gapSlot(int i) {
+		return gaps[i];
+	}
+
+	/**
+	 * @return the Zobrist hash of the current layout
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * A blank space is live if some card may move into it: it is at the
+	 * start of a row, where any ace may go, or the card to its left is
+	 * neither a king nor another blank space.
+	 *
+	 * @return the number of live blank spaces, kept up to date on every
+	 *         change
+	 */
+	public int getLiveGaps() {
+		return liveGaps;
+	}
+
+	/**
+	 * @return true if at least one legal move remains
+	 */
+	public boolean hasMoves() {
+		return liveGaps > 0;
+	}
+
+	/**
+	 * Tests if moving the card at one position onto another follows the
+	 * rules: the target must be a blank space, and it must either be at the
+	 * start of a row with an ace being moved, or be directly to the right of
+	 * the card of the same suit with a face value one less.
+	 *
+	 * @param from is the position of the card being moved
+	 * @param to is the position it is being moved to
+	 * @return true if the move is legal
+	 */
+	public boolean isLegal(int from, int to) {
+		int card = cells[from];
+		if (card == GAP || cells[to] != GAP) {
+			return false;
+		}
+		if (to % columns == 0) {
+			return (card & numberMask) == 1;
+		}
+		return (card & numberMask) != 1 && cells[to - 1] == card - 1;
+	}
+
+	/**
+	 * @param row is the row to look at
+	 * @return the number of cards at the start of the row that are already
+	 *         in order, beginning with an ace
+	 */
+	public int lockedLength(int row) {
+		return locked[row];
+	}
+
+	/**
+	 * @return the number of cards in the ordered runs of every row, which
+	 *         a shuffle never moves
+	 */
+	public int countLocked() {
+		return lockedTotal;
+	}
+
+	/**
+	 * @return the number of slots whose face value matches their column,
+	 *         every slot for a win. Blank spaces count in the last column.
+	 */
+	public int countCorrect() {
+		return correct;
+	}
+
+	/**
+	 * @return true if every row holds one full suit in order
+	 */
+	public boolean isWon() {
+		return lockedTotal == suits * ranks;
+	}
+
+	//=========================================================================
+	// Changes
+	//=========================================================================
+
+	/**
+	 * Swaps the contents of two positions, without checking legality.
+	 *
+	 * @param a is the first position
+	 * @param b is the second position
+	 */
+	public void swap(int a, int b) {
+		// only the two positions and the ones just right of them can change
+		// between live and dead
+		liveGaps -= liveAround(a, b);
+		if (a != b) {
+			correct -= correctAt(a) + correctAt(b);
+		}
+		short ca = cells[a];
+		short cb = cells[b];
+		cells[a] = cb;
+		cells[b] = ca;
+		hash ^= zobrist[a * codes + ca] ^ zobrist[a * codes + cb]
+				^ zobrist[b * codes + cb] ^ zobrist[b * codes + ca];
+		index(a);
+		index(b);
+		liveGaps += liveAround(a, b);
+		if (a != b) {
+			correct += correctAt(a) + correctAt(b);
+		}
+		if (a / columns == b / columns) {
+			relock(a / columns, Math.min(a % columns, b % columns));
+		} else {
+			relock(a / columns, a % columns);
+			relock(b / columns, b % columns);
+		}
+	}
+
+	/**
+	 * Sets the cards up in random order, with the blank spaces on the left.
+	 *
+	 * @param rnd is the source of randomness
+	 */
+	public void deal(Random rnd) {
+		int n = 0;
+		for (int suit = 1; suit <= suits; suit++) {
+			for (int number = 1; number <= ranks; number++) {
+				scratch[n++] = (short)shape.code(suit, number);
+			}
+		}
+		permute(n, rnd);
+		n = 0;
+		for (int row = 0; row < suits; row++) {
+			cells[row * columns] = GAP;
+			for (int col = 1; col < columns; col++) {
+				cells[row * columns + col] = scratch[n++];
+			}
+		}
+		reindex();
+	}
+
+	/**
+	 * Shuffles only the cards that are not already in winning positions.
+	 * A card is in a winning position if it is part of the ordered run at
+	 * the start of its row. After shuffling, the blank spaces are placed at
+	 * the end of each row.
+	 *
+	 * @param rnd is the source of randomness
+	 */
+	public void shuffle(Random rnd) {
+		// pull out every card that is not locked in place
+		int n = 0;
+		for (int row = 0; row < suits; row++) {
+			int start = row * columns;
+			for (int col = locked[row]; col < columns; col++) {
+				if (cells[start + col] != GAP) {
+					scratch[n++] = cells[start + col];
+				}
+			}
+		}
+		permute(n, rnd);
+
+		// deal them back out, leaving the last slot of each row blank
+		n = 0;
+		for (int row = 0; row < suits; row++) {
+			int start = row * columns;
+			for (int col = locked[row]; col < ranks; col++) {
+				cells[start + col] = scratch[n++];
+			}
+			cells[start + ranks] = GAP;
+		}
+		reindex();
+	}
+
+	/**
+	 * Makes this board a copy of another.
+	 *
+	 * @param other is the board to copy, of the same shape as this one
+	 * @throws IllegalArgumentException if the boards differ in shape
+	 */
+	public void copyFrom(BoardState other) {
+		if (!other.shape.equals(shape)) {
+			throw new IllegalArgumentException("Boards differ in shape.");
+		}
+		System.arraycopy(other.cells, 0, cells, 0, slots);
+		System.arraycopy(other.slotOf, 0, slotOf, 0, codes);
+		System.arraycopy(other.gaps, 0, gaps, 0, suits);
+		hash = other.hash;
+		liveGaps = other.liveGaps;
+		System.arraycopy(other.locked, 0, locked, 0, suits);
+		lockedTotal = other.lockedTotal;
+		correct = other.correct;
+	}
+
+	/**
+	 * Copies the cell values of this board into an array.
+	 *
+	 * @param dest is an array with room for every slot
+	 */
+	public void getCells(short[] dest) {
+		System.arraycopy(cells, 0, dest, 0, slots);
+	}
+
+	/**
+	 * Replaces every cell of this board. The board is left unchanged if the
+	 * values are not exactly one of each card plus a blank space for each
+	 * row.
+	 *
+	 * @param src is an array of a cell value for every slot
+	 * @throws IllegalArgumentException if src is not a valid layout
+	 */
+	public void setCells(short[] src) {
+		// use scratch as a tally of each card seen
+		Arrays.fill(scratch, (short)0);
+		int blanks = 0;
+		for (int i = 0; i < slots; i++) {
+			int code = src[i];
+			int suit = shape.suitOf(code);
+			int number = code & numberMask;
+			if (code == GAP) {
+				blanks++;
+			} else if (suit < 1 || suit > suits || number < 1
+					|| number > ranks
+					|| scratch[(suit - 1) * ranks + number - 1]++ != 0) {
+				throw new IllegalArgumentException(
+						"Invalid card at position " + i + ".");
+			}
+		}
+		if (blanks != suits) {
+			throw new IllegalArgumentException(
+					"Invalid number of blank spaces.");
+		}
+		System.arraycopy(src, 0, cells, 0, slots);
+		reindex();
+	}
+
+	//=========================================================================
+	// Helpers
+	//=========================================================================
+
+	/**
+	 * Shuffles the first n entries of scratch, using the same algorithm as
+	 * Collections.shuffle.
+	 */
+	private void permute(int n, Random rnd) {
+		for (int i = n; i > 1; i--) {
+			int j = rnd.nextInt(i);
+			short tmp = scratch[i - 1];
+			scratch[i - 1] = scratch[j];
+			scratch[j] = tmp;
+		}
+	}
+
+	/**
+	 * Updates the reverse index for a single position. Blank spaces keep
+	 * their order in the gaps array, so only the moved one is replaced.
+	 */
+	private void index(int slot) {
+		int code = cells[slot];
+		if (code != GAP) {
+			slotOf[code] = (short)slot;
+			return;
+		}
+		for (int i = 0; i < suits; i++) {
+			if (cells[gaps[i]] != GAP) {
+				gaps[i] = (short)slot;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return 1 if the face value at slot matches its column, otherwise 0.
+	 *         Blank spaces match the last column.
+	 */
+	private int correctAt(int slot) {
+		return getNumber(slot) - 1 == slot % columns ? 1 : 0;
+	}
+
+	/**
+	 * @return the length of the ordered run at the start of a row, found by
+	 *         looking at the row from a column the run is known to reach
+	 */
+	private int scanLocked(int row, int from) {
+		int start = row * columns;
+		int first = cells[start];
+		if ((first & numberMask) != 1) {
+			return 0;
+		}
+		int length = Math.max(from, 1);
+		while (length < ranks && cells[start + length] == first + length) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Updates the run of a row, after some of its slots have changed. A
+	 * change further right than the first card out of order cannot affect
+	 * the run, so most changes need no work at all, and the rest only look
+	 * at the cards the run gains.
+	 *
+	 * @param col is the first column of the row that changed
+	 */
+	private void relock(int row, int col) {
+		if (col > locked[row]) {
+			return;
+		}
+		// the run is unchanged up to the first column that changed
+		lockedTotal -= locked[row];
+		locked[row] = (short)scanLocked(row, col);
+		lockedTotal += locked[row];
+	}
+
+	/**
+	 * @return 1 if slot is a live blank space, otherwise 0
+	 */
+	private int live(int slot) {
+		if (cells[slot] != GAP) {
+			return 0;
+		}
+		if (slot % columns == 0) {
+			return 1;
+		}
+		int left = cells[slot - 1];
+		return left != GAP && (left & numberMask) != ranks ? 1 : 0;
+	}
+
+	/**
+	 * @return the number of live blank spaces among positions a and b and
+	 *         the positions just right of them, counting each once
+	 */
+	private int liveAround(int a, int b) {
+		int count = live(a) + live(b);
+		if ((a + 1) % columns != 0 && a + 1 != b) {
+			count += live(a + 1);
+		}
+		if ((b + 1) % columns != 0 && b + 1 != a) {
+			count += live(b + 1);
+		}
+		return count;
+	}
+
+	/**
+	 * Rebuilds the whole reverse index from the cells.
+	 */
+	private void reindex() {
+		int g = 0;
+		hash = 0;
+		for (int i = 0; i < slots; i++) {
+			hash ^= zobrist[i * codes + cells[i]];
+			if (cells[i] == GAP) {
+				gaps[g++] = (short)i;
+			} else {
+				slotOf[cells[i]] = (short)i;
+			}
+		}
+		liveGaps = 0;
+		for (int i = 0; i < suits; i++) {
+			liveGaps += live(gaps[i]);
+		}
+		lockedTotal = 0;
+		for (int row = 0; row < suits; row++) {
+			locked[row] = (short)scanLocked(row, 0);
+			lockedTotal += locked[row];
+		}
+		correct = 0;
+		for (int i = 0; i < slots; i++) {
+			correct += correctAt(i);
+		}
+	}
+}
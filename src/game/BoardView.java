@@ -0,0 +1,462 @@
+package game;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+
+import javax.swing.JComponent;
+
+/**
+ * Draws the whole board as a single component: a gray space under every
+ * slot and the card in it on top, with the card being dragged, if any,
+ * drawn last at the mouse.
+ *
+ * Every card image is copied once into an atlas, a single image holding
+ * all 53 of them, and the board is drawn into a VolatileImage that is kept
+ * between paints. A board larger than the standard one has cards with no
+ * image, so its atlas is drawn instead: a plain face for each card, with
+ * its face value, its suit, and for a second deck or more, the number of
+ * its deck. Only the slots that have changed since the last paint
+ * are drawn into it again, and painting the component copies it to the
+ * screen in one step. If the video memory holding it is lost, the whole
+ * board is drawn again.
+ *
+ * Until showBoard is called, only the background is drawn, so that the
+ * window can be shown while the images are still being decoded.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class BoardView extends JComponent {
+	private static final long serialVersionUID = 1L;
+
+	// how highlighted slots are outlined
+	private static final Color HIGHLIGHT = new Color(255, 230, 0);
+	private static final Stroke OUTLINE = new BasicStroke(3);
+	// how the faces of cards with no image are drawn, by suit as in
+	// Main.SUITS
+	private static final String[] SYMBOLS = { "\u2660", "\u2665",
+			"\u2663", "\u2666" };
+	private static final Color RED = new Color(200, 0, 0);
+
+	// fields
+	// the atlas is laid out as ImageCache.ATLAS: a row for each suit, with
+	// the gray blank space after the last card of the first row
+	private Image atlas;
+	private int grayColumn;
+	private VolatileImage buffer;
+	private boolean[] dirty = new boolean[0];
+	// the cell value each slot was last marked to be drawn with, -1 if
+	// unknown, so that a slot whose card has not changed is left alone
+	private short[] drawn = new short[0];
+	private boolean allDirty = true;
+	private boolean anyDirty = true;
+	// the slot of the card being dragged, or -1, and where it is drawn
+	private int dragSlot = -1;
+	private int dragX;
+	private int dragY;
+	// the slots that are outlined
+	private int[] highlight = new int[0];
+	private int highlightCount;
+	// set once the board is ready to be drawn, which may be on another
+	// thread
+	private volatile boolean shown;
+	private boolean painted;
+
+	/**
+	 * Constructs a view of Main.board, laid out by Main.geometry.
+	 */
+	public BoardView() {
+		setOpaque(true);
+		setBackground(Main.paleGreen);
+	}
+
+	/**
+	 * Starts again after Main.board and Main.geometry have been replaced
+	 * by those of a board of another size, making the atlas again at the
+	 * next paint.
+	 */
+	public void rebuild() {
+		dirty = new boolean[Main.board.getShape().getSlots()];
+		drawn = new short[dirty.length];
+		Arrays.fill(drawn, (short)-1);
+		highlightCount = 0;
+		dragSlot = -1;
+		atlas = null;
+		revalidate();
+		repaintAll();
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		return new Dimension(Main.geometry.getWidth(),
+				Main.geometry.getHeight());
+	}
+
+	//=========================================================================
+	// Changes
+	//=========================================================================
+
+	/**
+	 * Starts drawing the board, once Main.board holds a game and the card
+	 * images have been decoded. May be called on any thread.
+	 */
+	public void showBoard() {
+		shown = true;
+		repaintAll();
+	}
+
+	/**
+	 * Draws one slot again at the next paint, if the card in it has changed
+	 * since it was last marked.
+	 *
+	 * @param slot is a position in the grid
+	 */
+	public void updateSlot(int slot) {
+		if (slot >= drawn.length) {
+			return;
+		}
+		short code = (short)Main.board.get(slot);
+		if (drawn[slot] != code) {
+			drawn[slot] = code;
+			repaintSlot(slot);
+		}
+	}
+
+	/**
+	 * Draws one slot again at the next paint.
+	 *
+	 * @param slot is a position in the grid
+	 */
+	public void repaintSlot(int slot) {
+		if (slot >= dirty.length) {
+			return;
+		}
+		dirty[slot] = true;
+		anyDirty = true;
+		repaint(Main.geometry.getBounds(slot));
+	}
+
+	/**
+	 * Draws every slot again at the next paint.
+	 */
+	public void repaintAll() {
+		allDirty = true;
+		repaint();
+	}
+
+	/**
+	 * Starts drawing the card in a slot at a location of its own, leaving a
+	 * gray space in its slot.
+	 *
+	 * @param slot is the position of the card
+	 * @param x is the x coordinate of the left edge of the card
+	 * @param y is the y coordinate of the top edge of the card
+	 */
+	public void startDrag(int slot, int x, int y) {
+		dragSlot = slot;
+		dragX = x;
+		dragY = y;
+		repaintSlot(slot);
+	}
+
+	/**
+	 * Moves the card being dragged.
+	 *
+	 * @param x is the x coordinate of the left edge of the card
+	 * @param y is the y coordinate of the top edge of the card
+	 */
+	public void moveDrag(int x, int y) {
+		if (dragSlot < 0) {
+			return;
+		}
+		// repaint the area the card left and the area it moved to
+		repaint(Math.min(x, dragX), Math.min(y, dragY),
+				Math.abs(x - dragX) + Main.CARD_WIDTH,
+				Math.abs(y - dragY) + Main.CARD_HEIGHT);
+		dragX = x;
+		dragY = y;
+	}
+
+	/**
+	 * Stops drawing the dragged card at the mouse, returning it to its slot.
+	 */
+	public void endDrag() {
+		if (dragSlot < 0) {
+			return;
+		}
+		int slot = dragSlot;
+		dragSlot = -1;
+		repaint(dragX, dragY, Main.CARD_WIDTH, Main.CARD_HEIGHT);
+		repaintSlot(slot);
+	}
+
+	/**
+	 * Outlines a set of slots, such as the places a card may move to, in
+	 * place of any that were outlined before.
+	 *
+	 * @param slots holds the slots to outline
+	 * @param count is the number of slots to outline, 0 for none
+	 */
+	public void setHighlight(int[] slots, int count) {
+		// repaint only the slots whose outline appears or disappears
+		repaintHighlight();
+		if (highlight.length < count) {
+			highlight = new int[count];
+		}
+		System.arraycopy(slots, 0, highlight, 0, count);
+		highlightCount = count;
+		repaintHighlight();
+	}
+
+	/**
+	 * Removes every outline.
+	 */
+	public void clearHighlight() {
+		repaintHighlight();
+		highlightCount = 0;
+	}
+
+	/**
+	 * @return the number of outlined slots
+	 */
+	public int getHighlightCount() {
+		return highlightCount;
+	}
+
+	/**
+	 * @return the slot of the card being dragged, or -1 if there is none
+	 */
+	public int getDragSlot() {
+		return dragSlot;
+	}
+
+	/**
+	 * @return the x coordinate of the left edge of the card being dragged
+	 */
+	public int getDragX() {
+		return dragX;
+	}
+
+	/**
+	 * @return the y coordinate of the top edge of the card being dragged
+	 */
+	public int getDragY() {
+		return dragY;
+	}
+
+	//=========================================================================
+	// Painting
+	//=========================================================================
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		GraphicsConfiguration gc = getGraphicsConfiguration();
+		if (gc == null) {
+			return;
+		}
+		if (!shown) {
+			g.setColor(getBackground());
+			g.fillRect(0, 0, getWidth(), getHeight());
+			return;
+		}
+		if (atlas == null) {
+			atlas = createAtlas(gc);
+		}
+		int width = getWidth();
+		int height = getHeight();
+		do {
+			int status = buffer == null ? VolatileImage.IMAGE_INCOMPATIBLE
+					: buffer.validate(gc);
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE
+					|| buffer.getWidth() != width
+					|| buffer.getHeight() != height) {
+				if (buffer != null) {
+					buffer.flush();
+				}
+				buffer = gc.createCompatibleVolatileImage(width, height);
+				status = VolatileImage.IMAGE_RESTORED;
+			}
+			if (status == VolatileImage.IMAGE_RESTORED) {
+				allDirty = true;
+			}
+			render();
+			g.drawImage(buffer, 0, 0, null);
+		} while (buffer.contentsLost());
+
+		if (highlightCount > 0) {
+			// outlines are drawn over the buffer, so they come and go
+			// without drawing any card again
+			Graphics2D g2 = (Graphics2D)g;
+			Stroke stroke = g2.getStroke();
+			g2.setColor(HIGHLIGHT);
+			g2.setStroke(OUTLINE);
+			for (int i = 0; i < highlightCount; i++) {
+				int slot = highlight[i];
+				g2.drawRect(Main.geometry.getX(slot) + 1,
+						Main.geometry.getY(slot) + 1, Main.CARD_WIDTH - 3,
+						Main.CARD_HEIGHT - 3);
+			}
+			g2.setStroke(stroke);
+		}
+		if (dragSlot >= 0) {
+			drawCard(g, Main.board.get(dragSlot), dragX, dragY);
+		}
+		if (!painted) {
+			painted = true;
+			Main.reportFirstFrame();
+		}
+	}
+
+	/**
+	 * Draws every slot that has changed into the buffer.
+	 */
+	private void render() {
+		if (!allDirty && !anyDirty) {
+			return;
+		}
+		Graphics2D g = buffer.createGraphics();
+		try {
+			if (allDirty) {
+				g.setColor(getBackground());
+				g.fillRect(0, 0, buffer.getWidth(), buffer.getHeight());
+			}
+			for (int slot = 0; slot < dirty.length; slot++) {
+				if (allDirty || dirty[slot]) {
+					drawn[slot] = (short)Main.board.get(slot);
+					drawSlot(g, slot);
+					dirty[slot] = false;
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+		allDirty = false;
+		anyDirty = false;
+	}
+
+	/**
+	 * Draws a single slot: the gray space, then its card unless it is being
+	 * dragged.
+	 */
+	private void drawSlot(Graphics g, int slot) {
+		int x = Main.geometry.getX(slot);
+		int y = Main.geometry.getY(slot);
+		drawTile(g, 0, grayColumn, x, y);
+		if (slot != dragSlot && !Main.board.isGap(slot)) {
+			drawCard(g, Main.board.get(slot), x, y);
+		}
+	}
+
+	/**
+	 * Draws a card from the atlas.
+	 *
+	 * @param code is the cell value of the card, as in BoardState
+	 */
+	private void drawCard(Graphics g, int code, int x, int y) {
+		BoardShape shape = Main.board.getShape();
+		drawTile(g, shape.suitOf(code) - 1, shape.numberOf(code) - 1, x, y);
+	}
+
+	/**
+	 * Repaints every outlined slot.
+	 */
+	private void repaintHighlight() {
+		for (int i = 0; i < highlightCount; i++) {
+			repaint(Main.geometry.getBounds(highlight[i]));
+		}
+	}
+
+	/**
+	 * Copies one image from the atlas.
+	 */
+	private void drawTile(Graphics g, int row, int column, int x, int y) {
+		int sx = column * Main.CARD_WIDTH;
+		int sy = row * Main.CARD_HEIGHT;
+		g.drawImage(atlas, x, y, x + Main.CARD_WIDTH, y + Main.CARD_HEIGHT,
+				sx, sy, sx + Main.CARD_WIDTH, sy + Main.CARD_HEIGHT, null);
+	}
+
+	/**
+	 * Copies every card image into a single image that suits the screen,
+	 * in one step if the images were read from an atlas, and draws the
+	 * faces of cards that have no image.
+	 */
+	private Image createAtlas(GraphicsConfiguration gc) {
+		BoardShape shape = Main.board.getShape();
+		grayColumn = shape.getRanks();
+		BufferedImage image = gc.createCompatibleImage(
+				(grayColumn + 1) * Main.CARD_WIDTH,
+				shape.getSuits() * Main.CARD_HEIGHT, Transparency.TRANSLUCENT);
+		Graphics2D g = image.createGraphics();
+		try {
+			g.drawImage(ImageCache.getIcon(0, shape.getGapNumber())
+					.getImage(), grayColumn * Main.CARD_WIDTH, 0, null);
+			BufferedImage packed = ImageCache.getAtlas();
+			if (packed != null && shape.isStandard()) {
+				g.drawImage(packed, 0, 0, null);
+				return image;
+			}
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			for (int suit = 1; suit <= shape.getSuits(); suit++) {
+				for (int number = 1; number <= shape.getRanks(); number++) {
+					int x = (number - 1) * Main.CARD_WIDTH;
+					int y = (suit - 1) * Main.CARD_HEIGHT;
+					if (shape.isStandard()) {
+						g.drawImage(ImageCache.getIcon(suit, number)
+								.getImage(), x, y, null);
+					} else {
+						drawFace(g, suit, number, x, y);
+					}
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * Draws the face of a card that has no image: its face value and suit
+	 * in the corner and its suit in the middle, and the number of its deck
+	 * at the bottom if it is not from the first.
+	 */
+	private static void drawFace(Graphics2D g, int suit, int number, int x,
+			int y) {
+		int w = Main.CARD_WIDTH;
+		int h = Main.CARD_HEIGHT;
+		g.setColor(Color.WHITE);
+		g.fillRoundRect(x, y, w - 1, h - 1, 8, 8);
+		g.setColor(Color.GRAY);
+		g.drawRoundRect(x, y, w - 1, h - 1, 8, 8);
+		int kind = (suit - 1) % SYMBOLS.length;
+		int deck = (suit - 1) / SYMBOLS.length + 1;
+		g.setColor(kind % 2 == 1 ? RED : Color.BLACK);
+		g.setFont(g.getFont().deriveFont(Font.BOLD, 14f));
+		String label = number == 1 ? "A" : Integer.toString(number);
+		g.drawString(label + SYMBOLS[kind], x + 5, y + 17);
+		g.setFont(g.getFont().deriveFont(Font.PLAIN, 36f));
+		FontMetrics metrics = g.getFontMetrics();
+		g.drawString(SYMBOLS[kind],
+				x + (w - metrics.stringWidth(SYMBOLS[kind])) / 2,
+				y + (h + metrics.getAscent()) / 2 - 4);
+		if (deck > 1) {
+			g.setFont(g.getFont().deriveFont(Font.PLAIN, 11f));
+			g.setColor(Color.GRAY);
+			g.drawString("deck " + deck, x + 5, y + h - 6);
+		}
+	}
+}
@@ -0,0 +1,446 @@
+package game;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a board as a fixed-width key that is the same for every board
+ * that differs from it only by the order of its rows or the naming of its
+ * suits. As the rules say, the vertical order of the suits does not
+ * matter, and no rule tells one suit from another, so all such boards play
+ * the same way. Searches, caches and deal libraries can use the key to
+ * treat them as one position, which on the standard board merges up to
+ * 4! x 4! layouts.
+ *
+ * The key is the board itself with its rows put in a canonical order and
+ * its suits renamed in the order they are first met, reading the rows in
+ * that order. Each slot is packed into a few bits, the first slot in the
+ * highest bits, so keys compare in the same order as the boards they were
+ * packed from. A standard board takes 6 longs. Rows are ordered by their
+ * face values, which do not change when suits are renamed, and then by
+ * which cards of the row share a suit. Rows that still tie are tried in
+ * every order, keeping the smallest key, as long as there are no more
+ * than MAX_ORDERINGS orders to try; every tie on the standard board fits.
+ * Past that, tied rows keep the order they have on the board, so two
+ * equivalent boards may then get different keys, but two boards that are
+ * not equivalent never get the same key. The key holds only the layout,
+ * so anything else that sets positions apart, such as the number of
+ * shuffles remaining, must be kept beside it.
+ *
+ * A codec is not thread-safe, but allocates nothing while encoding, so it
+ * is cheap enough to use on every position a search visits.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class CanonicalCodec {
+	/**
+	 * The most orders of tied rows that encode will try.
+	 */
+	public static final int MAX_ORDERINGS = 24;
+
+	// the size of the board, copied from shape since they are used so often
+	private final BoardShape shape;
+	private final int suits;
+	private final int ranks;
+	private final int columns;
+	private final int slots;
+	private final int suitShift;
+	private final int numberMask;
+	// the packing of the key
+	private final int bits;
+	private final int perLong;
+	private final int length;
+
+	// scratch space, so that nothing is allocated while encoding
+	private final int[] order;
+	private final int[] groups;
+	private final int[] labels;
+	private final int[] seen;
+	private final int[] seenB;
+	private final int[] labelsB;
+	private final int[] rowOf;
+	private int mark;
+	private final long[] candidate;
+	private final long[] hashKey;
+	private final short[] cells;
+
+	/**
+	 * @param shape is the size of the boards to be encoded
+	 */
+	public CanonicalCodec(BoardShape shape) {
+		this.shape = shape;
+		suits = shape.getSuits();
+		ranks = shape.getRanks();
+		columns = shape.getColumns();
+		slots = shape.getSlots();
+		suitShift = Integer.numberOfTrailingZeros(shape.code(1, 0));
+		numberMask = shape.numberOf(-1);
+		bits = 32 - Integer.numberOfLeadingZeros(suits * ranks);
+		perLong = 64 / bits;
+		length = (slots + perLong - 1) / perLong;
+		order = new int[suits];
+		groups = new int[suits + 1];
+		labels = new int[suits + 1];
+		seen = new int[suits + 1];
+		seenB = new int[suits + 1];
+		labelsB = new int[suits + 1];
+		rowOf = new int[suits + 1];
+		candidate = new long[length];
+		hashKey = new long[length];
+		cells = new short[slots];
+	}
+
+	/**
+	 * @return the size of the boards this codec encodes
+	 */
+	public BoardShape getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return the number of longs in a key
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	//=========================================================================
+	// Encoding
+	//=========================================================================
+
+	/**
+	 * Writes the canonical key of a board.
+	 *
+	 * @param board is the board to encode, of this codec's shape
+	 * @param key is an array of getLength longs, which is filled with the
+	 *  key
+	 * @throws IllegalArgumentException if the board is of another shape
+	 */
+	public void encode(BoardState board, long[] key) {
+		if (!board.getShape().equals(shape)) {
+			throw new IllegalArgumentException("Board is " + board.getShape()
+					+ ", codec is " + shape);
+		}
+		board.getCells(cells);
+		for (int i = 0; i < suits; i++) {
+			order[i] = i;
+		}
+
+		// insertion sort, which keeps tied rows in board order
+		for (int i = 1; i < suits; i++) {
+			int row = order[i];
+			int j = i - 1;
+			while (j >= 0 && compareRows(order[j], row) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = row;
+		}
+
+		// split the order into groups of tied rows, counting the orders to
+		// try. Tied rows whose suits are in no other row give the same key
+		// in any order, as every row of a won board does, so each of them
+		// is left as a group of its own.
+		int count = 0;
+		int orderings = 1;
+		for (int i = 0; i < suits;) {
+			int end = i + 1;
+			while (end < suits && compareRows(order[i], order[end]) == 0) {
+				end++;
+			}
+			if (end - i > 1 && !isClosed(i, end)) {
+				groups[count++] = i;
+				for (int n = 2; n <= end - i && orderings <= MAX_ORDERINGS;
+						n++) {
+					orderings *= n;
+				}
+			} else {
+				while (i < end) {
+					groups[count++] = i++;
+				}
+			}
+			i = end;
+		}
+		groups[count] = suits;
+
+		pack(key);
+		if (orderings == 1 || orderings > MAX_ORDERINGS) {
+			return;
+		}
+		while (nextOrdering(count)) {
+			pack(candidate);
+			if (less(candidate, key)) {
+				System.arraycopy(candidate, 0, key, 0, length);
+			}
+		}
+	}
+
+	/**
+	 * @param board is the board to look up, of this codec's shape
+	 * @return a 64-bit hash of the canonical key of the board, for tables
+	 *         that can tolerate the rare collision
+	 */
+	public long hash(BoardState board) {
+		encode(board, hashKey);
+		return hash(hashKey);
+	}
+
+	/**
+	 * @param key is a key written by encode
+	 * @return a 64-bit hash of the key
+	 */
+	public static long hash(long[] key) {
+		long h = key.length;
+		for (int i = 0; i < key.length; i++) {
+			h = SplitMix.mix(h + key[i] * 0x9E3779B97F4A7C15L);
+		}
+		return h;
+	}
+
+	/**
+	 * Sets a board to the canonical layout a key was written from. It plays
+	 * the same way as every board with that key.
+	 *
+	 * @param key is a key written by encode
+	 * @param board is a board of this codec's shape, which is filled
+	 * @throws IllegalArgumentException if the board is of another shape, or
+	 *  the key is not a layout of every card and blank space
+	 */
+	public void decode(long[] key, BoardState board) {
+		if (!board.getShape().equals(shape)) {
+			throw new IllegalArgumentException("Board is " + board.getShape()
+					+ ", codec is " + shape);
+		}
+		boolean[] used = new boolean[shape.getCodes()];
+		int blanks = 0;
+		for (int i = 0; i < slots; i++) {
+			int value = valueAt(key, i);
+			if (value > suits * ranks) {
+				throw new IllegalArgumentException("Not a card: " + value);
+			}
+			int code = toCode(value);
+			if (code == BoardState.GAP ? ++blanks > suits : used[code]) {
+				throw new IllegalArgumentException("Card repeated: " + value);
+			}
+			used[code] = true;
+			cells[i] = (short)code;
+		}
+		board.setCells(cells);
+	}
+
+	/**
+	 * Writes the canonical layout of a board, the one decode would give for
+	 * its key, without allocating.
+	 *
+	 * @param board is the board to encode, of this codec's shape
+	 * @param dest has room for every slot of the board, and is filled with
+	 *  cell values as in BoardState
+	 * @throws IllegalArgumentException if the board is of another shape
+	 */
+	public void canonicalize(BoardState board, short[] dest) {
+		encode(board, hashKey);
+		for (int i = 0; i < slots; i++) {
+			dest[i] = (short)toCode(valueAt(hashKey, i));
+		}
+	}
+
+	//=========================================================================
+	// Helpers
+	//=========================================================================
+
+	/**
+	 * @return the packed value of a slot in a key: 0 for a blank space,
+	 *         otherwise 1 + (suit - 1) * ranks + (number - 1)
+	 */
+	private int valueAt(long[] key, int slot) {
+		int shift = (perLong - 1 - slot % perLong) * bits;
+		return (int)(key[slot / perLong] >>> shift & ((1L << bits) - 1));
+	}
+
+	/**
+	 * @return the cell value of a packed value
+	 */
+	private int toCode(int value) {
+		return value == 0 ? BoardState.GAP
+				: shape.code((value - 1) / ranks + 1, (value - 1) % ranks + 1);
+	}
+
+
+	/**
+	 * @return true if no suit of the rows order[start..end) is in any other
+	 *         row
+	 */
+	private boolean isClosed(int start, int end) {
+		// note the row of each suit, or -2 for a suit in more than one row
+		Arrays.fill(rowOf, -1);
+		for (int slot = 0; slot < slots; slot++) {
+			int card = cells[slot];
+			if (card != BoardState.GAP) {
+				int suit = card >> suitShift;
+				int row = slot / columns;
+				rowOf[suit] = rowOf[suit] == -1 || rowOf[suit] == row ? row
+						: -2;
+			}
+		}
+		for (int k = start; k < end; k++) {
+			int first = order[k] * columns;
+			for (int slot = first; slot < first + columns; slot++) {
+				int card = cells[slot];
+				if (card != BoardState.GAP && rowOf[card >> suitShift] < 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the order of two rows by their face values, then by which of
+	 *         their cards share a suit, neither of which changes when suits
+	 *         are renamed
+	 */
+	private int compareRows(int a, int b) {
+		int i = a * columns;
+		int j = b * columns;
+		for (int col = 0; col < columns; col++) {
+			int difference = (cells[i + col] & numberMask)
+					- (cells[j + col] & numberMask);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+
+		// the same face values, so compare the suits of the two rows,
+		// numbering each in the order they are met along its row
+		if (++mark == 0) {
+			Arrays.fill(seen, 0);
+			mark = 1;
+		}
+		int first = mark;
+		int second = ++mark;
+		int localA = 0;
+		int localB = 0;
+		for (int col = 0; col < columns; col++) {
+			int cardA = cells[i + col];
+			if (cardA == BoardState.GAP) {
+				continue;
+			}
+			int suitA = cardA >> suitShift;
+			int suitB = cells[j + col] >> suitShift;
+			if (seen[suitA] != first) {
+				seen[suitA] = first;
+				labels[suitA] = ++localA;
+			}
+			int labelA = labels[suitA];
+			if (seenB[suitB] != second) {
+				seenB[suitB] = second;
+				labelsB[suitB] = ++localB;
+			}
+			if (labelA != labelsB[suitB]) {
+				return labelA - labelsB[suitB];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Moves to the next order of the tied rows, counting through the
+	 * permutations of each group like the digits of an odometer.
+	 *
+	 * @return false once every order has been tried, with the first order
+	 *         restored
+	 */
+	private boolean nextOrdering(int count) {
+		for (int g = count - 1; g >= 0; g--) {
+			if (nextPermutation(groups[g], groups[g + 1])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Steps order[start..end) to its next permutation in lexicographic
+	 * order, or back to the first if it was the last.
+	 *
+	 * @return false if the permutation wrapped back to the first
+	 */
+	private boolean nextPermutation(int start, int end) {
+		int i = end - 2;
+		while (i >= start && order[i] > order[i + 1]) {
+			i--;
+		}
+		if (i >= start) {
+			int j = end - 1;
+			while (order[j] < order[i]) {
+				j--;
+			}
+			swap(i, j);
+		}
+		for (int a = i + 1, b = end - 1; a < b; a++, b--) {
+			swap(a, b);
+		}
+		return i >= start;
+	}
+
+	/**
+	 * Swaps two entries of order.
+	 */
+	private void swap(int a, int b) {
+		int tmp = order[a];
+		order[a] = order[b];
+		order[b] = tmp;
+	}
+
+	/**
+	 * Packs the board with its rows in the current order into a key,
+	 * renaming suits in the order they are met.
+	 */
+	private void pack(long[] dest) {
+		int[] labels = this.labels;
+		Arrays.fill(labels, 0);
+		int next = 0;
+		int word = 0;
+		int top = (perLong - 1) * bits;
+		int shift = top;
+		long packed = 0;
+		for (int k = 0; k < suits; k++) {
+			int first = order[k] * columns;
+			for (int slot = first; slot < first + columns; slot++) {
+				int card = cells[slot];
+				if (card != BoardState.GAP) {
+					int suit = card >> suitShift;
+					int label = labels[suit];
+					if (label == 0) {
+						label = ++next;
+						labels[suit] = label;
+					}
+					packed |= (long)((label - 1) * ranks
+							+ (card & numberMask)) << shift;
+				}
+				shift -= bits;
+				if (shift < 0) {
+					dest[word++] = packed;
+					packed = 0;
+					shift = top;
+				}
+			}
+		}
+		if (word < length) {
+			dest[word] = packed;
+		}
+	}
+
+	/**
+	 * @return true if key a is smaller than key b, comparing each long as
+	 *         unsigned
+	 */
+	private boolean less(long[] a, long[] b) {
+		for (int i = 0; i < length; i++) {
+			if (a[i] != b[i]) {
+				return (a[i] ^ Long.MIN_VALUE) < (b[i] ^ Long.MIN_VALUE);
+			}
+		}
+		return false;
+	}
+}
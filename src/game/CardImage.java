@@ -1,8 +1,5 @@
 package game;
 
-import java.awt.Point;
-
-import javax.swing.ImageIcon;
 import javax.swing.JLabel;
 
 /**
@@ -12,51 +9,29 @@ import javax.swing.JLabel;
  * @version 3.1.7.b
  */
 public class CardImage extends JLabel {
-	/**
-	 * The number of pixels that a single card image takes up horizontally.
-	 * Should always match the actual dimensions of the images being used.
-	 * Should always match the value of the same name in Main.
-	 */
-	public static final int CARD_WIDTH = 73;
-	/**
-	 * The number of pixels that a single card .gif image takes up vertically.
-	 * Should always match the actual dimensions of the images being used.
-	 * Should always match the value of the same name in Main.
-	 */
-	public static final int CARD_HEIGHT = 97;
-	
 	// fields
 	private boolean isDraggable;
 	private int suit;
 	private int number;
+	private int slot = -1;
 
 	/**
-	 * Constructs a card with all the necessary information.
+	 * Constructs a card with all the necessary information. The image is
+	 * shared with every other card of the same suit and number.
 	 * 
-	 * @param path is the filepath to this card's image
 	 * @param suit is the number of the suit, 1-4, for Spades, Hearts, Clubs,
 	 *  and Diamonds respectively. Suit of a blank card is 0.
 	 * @param number is the face value of the card 1-13, for numbers 1-10,
 	 * 	Jack, Queen, and King respectively. Number of a blank card is 14.
 	 * @param draggable determines if the user is allowed to drag this card
 	 */
-	public CardImage(String path, int suit, int number, boolean draggable) {
-		super(new ImageIcon(path));
+	public CardImage(int suit, int number, boolean draggable) {
+		super(ImageCache.getIcon(suit, number));
 		this.suit = suit;
 		this.number = number;
 		isDraggable = draggable;
-		Drag mouseListenInst = new Drag(this);
-		addMouseListener(mouseListenInst);
-		addMouseMotionListener(mouseListenInst);
-		// this.setSize(73, 97);
-	}
-
-	/**
-	 * @return the center of this card as a Point
-	 */
-	public Point getCenter() {
-		return new Point(this.getX() + (CARD_WIDTH / 2),
-				this.getY() + (CARD_HEIGHT / 2));
+		// the board is drawn and dragged by BoardView, so cards do not need
+		// listeners of their own
 	}
 
 	/**
@@ -84,15 +59,23 @@ public class CardImage extends JLabel {
 	}
 	
 	/**
-	 * @return the card closest to this card,
-	 *  measured from the center of each card
+	 * @return the position of this card in the playGrid as last recorded by
+	 *         Main, or -1 if it is not on the grid
 	 */
-	public CardImage getNearest(){
-		// must be executed in Main,
-		// since this function requires access to the playGrid
-		return Main.getNearest(this);
+	public int getSlot() {
+		return slot;
 	}
-	
+
+	/**
+	 * Records the position of this card in the playGrid. Only Main should
+	 * call this, whenever it moves the card.
+	 *
+	 * @param slot is the new position
+	 */
+	public void setSlot(int slot) {
+		this.slot = slot;
+	}
+
 	/**
 	 * @return the position of this card in the playGrid
 	 */
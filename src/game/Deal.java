@@ -0,0 +1,119 @@
+package game;
+
+/**
+ * Turns a 64-bit deal ID into a game: the starting layout and the outcome
+ * of every shuffle.
+ *
+ * Each deal ID is the seed of a family of SplitMix streams. Stream 0 lays
+ * out the cards, and the shuffle made while r shuffles remain draws from
+ * stream r, so the same deal ID always gives the same layout and the same
+ * shuffles, no matter what moves were made in between. Solver numbers its
+ * shuffles the same way, so a line it finds for a deal ID can be played.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class Deal {
+	// the stream that lays out the cards
+	private static final int LAYOUT_STREAM = 0;
+
+	/**
+	 * Not used; every method is static.
+	 */
+	private Deal() {
+	}
+
+	/**
+	 * @param id is a deal ID
+	 * @return the seed of the random stream that lays out that deal
+	 */
+	public static long layoutSeed(long id) {
+		return SplitMix.streamSeed(id, LAYOUT_STREAM);
+	}
+
+	/**
+	 * @param id is a deal ID
+	 * @param remaining is the number of shuffles remaining before the
+	 *  shuffle, at least 1
+	 * @return the seed of the random stream for that shuffle
+	 */
+	public static long shuffleSeed(long id, int remaining) {
+		return SplitMix.streamSeed(id, remaining);
+	}
+
+	/**
+	 * Lays out the cards of a deal.
+	 *
+	 * @param board is the board to lay out
+	 * @param id is the deal ID
+	 */
+	public static void deal(BoardState board, long id) {
+		board.deal(new SplitMix(layoutSeed(id)));
+	}
+
+	/**
+	 * Makes the shuffle of a deal for the given number of shuffles
+	 * remaining.
+	 *
+	 * @param board is the board to shuffle
+	 * @param id is the deal ID
+	 * @param remaining is the number of shuffles remaining before the
+	 *  shuffle, at least 1
+	 */
+	public static void shuffle(BoardState board, long id, int remaining) {
+		board.shuffle(new SplitMix(shuffleSeed(id, remaining)));
+	}
+
+	/**
+	 * @param seed picks a whole series of deals
+	 * @param index is the number of a deal in the series
+	 * @return the ID of that deal; different seeds and indexes give
+	 *         independent deals
+	 */
+	public static long idOf(long seed, long index) {
+		return SplitMix.streamSeed(seed, index);
+	}
+
+	/**
+	 * @param id is a deal ID
+	 * @return the ID as 16 hexadecimal digits, as shown to the player
+	 */
+	public static String format(long id) {
+		String hex = Long.toHexString(id).toUpperCase();
+		return "0000000000000000".substring(hex.length()) + hex;
+	}
+
+	/**
+	 * @param text is a deal ID as written by format, with or without a
+	 *  leading # and with any number of leading zeros
+	 * @return the deal ID
+	 * @throws NumberFormatException if text is not a deal ID
+	 */
+	public static long parse(String text) {
+		String hex = text.trim();
+		if (hex.startsWith("#")) {
+			hex = hex.substring(1);
+		}
+		// drop leading zeros, keeping the last digit, so that only the
+		// significant digits count against the limit of 16
+		int zeros = 0;
+		while (zeros < hex.length() - 1 && hex.charAt(zeros) == '0') {
+			zeros++;
+		}
+		hex = hex.substring(zeros);
+		if (hex.isEmpty() || hex.length() > 16) {
+			throw new NumberFormatException("Not a deal number: " + text);
+		}
+		for (int i = 0; i < hex.length(); i++) {
+			if (Character.digit(hex.charAt(i), 16) < 0) {
+				throw new NumberFormatException("Not a deal number: " + text);
+			}
+		}
+		// parse in two halves, since Long.parseLong rejects the top bit
+		int split = Math.max(0, hex.length() - 8);
+		long high = split == 0 ? 0
+				: Long.parseLong(hex.substring(0, split), 16);
+		long low = Long.parseLong(hex.substring(split), 16);
+		return (high << 32) | low;
+	}
+}
@@ -1,66 +1,113 @@
 package game;
 
-import java.awt.Point;
+import java.awt.DisplayMode;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.util.ArrayList;
-import java.util.List;
 
-import javax.swing.JOptionPane;
+import javax.swing.Timer;
 
 /**
- * Listens for mouse presses and movements, and performs repositioning on
- * the object to which it is attached.
- * 
+ * Listens for mouse presses and movements on the board, and lets the card
+ * under the mouse be dragged to another slot. A single instance handles
+ * every card, so nothing is added or removed when the board changes.
+ *
+ * The mouse can report movements far more often than the screen is
+ * redrawn, so each movement only records where the card should be, and a
+ * timer running at the refresh rate of the screen moves it there once per
+ * frame. Everything about a drag is kept in int fields, so no objects are
+ * created while dragging.
+ *
  * @author Stephen
  * @version 3.1.7b
  */
-public class Drag implements MouseListener, MouseMotionListener {
-	/**
-	 * Stores a reference to the object to which this object is attached.
-	 */
-	CardImage it;
+public class Drag implements MouseListener, MouseMotionListener,
+		ActionListener {
+	// used when the refresh rate of the screen cannot be found
+	private static final int DEFAULT_REFRESH_RATE = 60;
+
 	/**
-	 * Stores the X and Y coordinates of mouse when first pressed.
+	 * Stores a reference to the board to which this object is attached.
 	 */
-	Point difference;
+	BoardView view;
+	// the position of the mouse within the card when first pressed
+	private int offsetX;
+	private int offsetY;
+	// where the card should be drawn at the next frame
+	private int pendingX;
+	private int pendingY;
+	private boolean pending;
+	private final Timer frames;
+	// the places the card being dragged may go
+	private int[] targets = new int[0];
 
 	/**
-	 * @param it should match the object to which this listener is attached.
+	 * @param view should match the board to which this listener is attached.
 	 */
-	public Drag(CardImage it) {
-		this.it = it;
+	public Drag(BoardView view) {
+		this.view = view;
+		frames = new Timer(1000 / refreshRate(), this);
+		frames.setCoalesce(true);
 	}
 
 	/**
 	 * Activates when the mouse is first pressed down.
-	 * If the card is draggable, it is moved to the top layer,
+	 * If there is a card under the mouse, it starts being dragged,
 	 * and the position of the mouse within the card is recorded.
 	 */
 	public void mousePressed(MouseEvent e) {
-		if (it.isDraggable()) {
-			e.getComponent().getParent()
-					.setComponentZOrder(e.getComponent(), 0);
-			difference = e.getPoint();
+		int slot = Main.geometry.slotAt(e.getX(), e.getY());
+		if (slot >= 0 && slot < Main.board.getShape().getSlots()
+				&& !Main.board.isGap(slot)) {
+			int x = Main.geometry.getX(slot);
+			int y = Main.geometry.getY(slot);
+			offsetX = e.getX() - x;
+			offsetY = e.getY() - y;
+			pending = false;
+			view.startDrag(slot, x, y);
+			// anything that changes the board ends the drag, through
+			// Main.showSwap or Main.redrawInPlace, so the places the card
+			// may go are only found once
+			if (targets.length < Main.board.getShape().getSuits()) {
+				targets = new int[Main.board.getShape().getSuits()];
+			}
+			view.setHighlight(targets,
+					MoveGenerator.targets(Main.board, slot, targets));
 		}
 	}
 
 	/**
 	 * Continually active as long as the mouse is still moving.
-	 * Sets the position of the dragged card to a new location that matches the
-	 * mouse drag motion.
+	 * Records the new position of the dragged card, to be shown at the next
+	 * frame.
 	 */
 	public void mouseDragged(MouseEvent e) {
-		if (it.isDraggable()) {
-			// store relevant information
-			Point mouse = e.getPoint();
-			Point origin = it.getLocation();
+		if (view.getDragSlot() >= 0) {
+			pendingX = e.getX() - offsetX;
+			pendingY = e.getY() - offsetY;
+			pending = true;
+			if (!frames.isRunning()) {
+				frames.start();
+			}
+		}
+	}
 
-			// cast Points as ints, and move the card
-			int newX = (int)(origin.getX() + mouse.getX() - difference.getX());
-			int newY = (int)(origin.getY() + mouse.getY() - difference.getY());
-			it.setLocation(newX, newY);
+	/**
+	 * Activates once per frame while the mouse is moving, moving the dragged
+	 * card to where the mouse last was.
+	 */
+	public void actionPerformed(ActionEvent e) {
+		if (pending) {
+			pending = false;
+			view.moveDrag(pendingX, pendingY);
+		} else {
+			// the mouse has stopped, so there is nothing to do until it
+			// moves again
+			frames.stop();
 		}
 	}
 
@@ -68,45 +115,48 @@ public class Drag implements MouseListener, MouseMotionListener {
 	 * All game logic takes place here, after the card is dropped.
 	 */
 	public void mouseReleased(MouseEvent e) {
-		CardImage nearestCard = it.getNearest();
-		
-		// options for a single move, initialized to false
-		boolean grayCardAtStart = false;
-		boolean thisIsAnAce = false;
-		boolean legalMove = false;
-		
-		// test if this card has been dropped on one of the opening gray spaces
-		if ((nearestCard.getNumber() == 14)
-				&& (nearestCard.getIndex() % 14 == 0)) {
-			grayCardAtStart = true;
-		}
-		
-		// test if this is an ace
-		if (it.getNumber() == 1) {
-			thisIsAnAce = true;
+		int from = view.getDragSlot();
+		if (from < 0) {
+			return;
 		}
-		
-		// test if this was a standard legal move
-		// these two tests must happen first to prevent exceptions
-		if (!grayCardAtStart && !thisIsAnAce
-				&& Main.getCard(nearestCard.getIndex() - 1).getNumber()
-				== it.getNumber() - 1
-				&& Main.getCard(nearestCard.getIndex() - 1).getSuit()
-				== it.getSuit()) {
-			legalMove = true;
-		}
-		
+		frames.stop();
+		pending = false;
+		int x = e.getX() - offsetX;
+		int y = e.getY() - offsetY;
+		int to = Main.geometry.nearestSlot(x + (Main.CARD_WIDTH / 2),
+				y + (Main.CARD_HEIGHT / 2), from);
+		view.endDrag();
+		view.clearHighlight();
+
 		// swap if this move is placing an ace at the start of a row,
-		// or is a standard legal move otherwise,
-		// beep and put the card back where it was
-		if ((grayCardAtStart && thisIsAnAce) || legalMove) {
-			it.swap(it.getNearest());
-		} else {
+		// or is a standard legal move otherwise, beep and leave the card
+		// where it was; endDrag has already drawn it back in its slot, and
+		// the board is unchanged, so there is nothing more to check
+		if (!Main.board.isLegal(from, to)) {
 			java.awt.Toolkit.getDefaultToolkit().beep();
-			Main.redrawInPlace();
+			return;
 		}
+		Main.swapCards(Main.getCard(from), Main.getCard(to));
 
 		Main.checkWin();
+		Main.checkMoves();
+	}
+
+	/**
+	 * @return the refresh rate of the main screen in frames per second
+	 */
+	private static int refreshRate() {
+		try {
+			DisplayMode mode = GraphicsEnvironment.getLocalGraphicsEnvironment()
+					.getDefaultScreenDevice().getDisplayMode();
+			int rate = mode.getRefreshRate();
+			if (rate != DisplayMode.REFRESH_RATE_UNKNOWN && rate > 0) {
+				return rate;
+			}
+		} catch (HeadlessException e) {
+			// no screen, so any rate will do
+		}
+		return DEFAULT_REFRESH_RATE;
 	}
 
 	// these methods are not used, but must be defined from the superclass.
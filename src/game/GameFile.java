@@ -0,0 +1,591 @@
+package game;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes saved games in a compact binary format.
+ *
+ * Each saved game is a single record:
+ *   int    magic, the letters CRPT
+ *   short  format version
+ *   short  flags; bit 0 is set if the undo journal is included, bit 1 if
+ *          the deal ID is, and bit 2 if the size of the board is
+ *   int    length of the whole record in bytes, including this header
+ *   byte   shuffles remaining
+ *   byte   shuffles allowed at the start of the game
+ *   long   the deal ID, if included
+ *   byte   suits, then byte ranks, if the size of the board is included
+ *   cells  the cells of the board, as in BoardState
+ *   the undo journal, if included:
+ *     cells  the cells the game started from
+ *     int    number of entries
+ *     int    number of entries that have not been undone
+ *     each entry: an int holding a swap as (a &lt;&lt; 12) | b, or -1
+ *     followed by the cells of a shuffle permutation
+ *   int    CRC32 of everything before it
+ *
+ * The size of the board is only included for a board other than the
+ * standard one, whose 56 cells take a byte each, as they always have.
+ * On any other board the cells take a short each, so that a record
+ * written before boards could change size is read the same way.
+ *
+ * Every number is big-endian. Since each record starts with its length,
+ * an archive is simply records written one after another, and any of them
+ * can be found by skipping over the ones before it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class GameFile {
+	/**
+	 * The first four bytes of every record.
+	 */
+	public static final int MAGIC = 0x43525054;
+	/**
+	 * The version written by this class.
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The flag that is set when the undo journal is included.
+	 */
+	public static final int FLAG_JOURNAL = 1;
+	/**
+	 * The flag that is set when the deal ID is included.
+	 */
+	public static final int FLAG_DEAL = 2;
+	/**
+	 * The flag that is set when the size of the board is included.
+	 */
+	public static final int FLAG_SHAPE = 4;
+
+	// sizes in bytes of the fixed parts of a record
+	private static final int HEADER = 12;
+	private static final int BODY = 2;
+	private static final int CHECKSUM = 4;
+	// a marker in place of a swap, for an entry that is a shuffle
+	private static final int SHUFFLE_ENTRY = -1;
+
+	// fields
+	private BoardShape shape;
+	private short[] cells;
+	private int shufflesRemaining;
+	private int startShuffles;
+	private MoveJournal journal;
+	private long dealId;
+	private boolean hasDealId;
+
+	/**
+	 * Copies a game so that it can be written.
+	 *
+	 * @param board is the position of the game
+	 * @param shufflesRemaining is the number of shuffles left
+	 * @param startShuffles is the number of shuffles allowed at the start
+	 * @param journal is the undo journal to include, or null for none
+	 */
+	public GameFile(BoardState board, int shufflesRemaining,
+			int startShuffles, MoveJournal journal) {
+		shape = board.getShape();
+		cells = new short[shape.getSlots()];
+		board.getCells(cells);
+		this.shufflesRemaining = shufflesRemaining;
+		this.startShuffles = startShuffles;
+		this.journal = journal;
+	}
+
+	/**
+	 * Constructs an empty game, to be filled in by decode.
+	 */
+	private GameFile() {
+	}
+
+	/**
+	 * @return the size of the saved board
+	 */
+	public BoardShape getShape() {
+		return shape;
+	}
+
+	/**
+	 * @param dest is an array with room for every slot of the saved board,
+	 *  which is filled with its cells
+	 */
+	public void getCells(short[] dest) {
+		System.arraycopy(cells, 0, dest, 0, cells.length);
+	}
+
+	/**
+	 * @return the number of shuffles left in the saved game
+	 */
+	public int getShufflesRemaining() {
+		return shufflesRemaining;
+	}
+
+	/**
+	 * @return the number of shuffles allowed at the start of the saved game
+	 */
+	public int getStartShuffles() {
+		return startShuffles;
+	}
+
+	/**
+	 * Includes a deal ID, so that the shuffles of the game can be made the
+	 * same way after it is loaded.
+	 *
+	 * @param dealId is the ID of the deal being played
+	 */
+	public void setDealId(long dealId) {
+		this.dealId = dealId;
+		hasDealId = true;
+	}
+
+	/**
+	 * @return true if a deal ID was saved
+	 */
+	public boolean hasDealId() {
+		return hasDealId;
+	}
+
+	/**
+	 * @return the saved deal ID, if hasDealId is true
+	 */
+	public long getDealId() {
+		return dealId;
+	}
+
+	/**
+	 * @return the saved undo journal, or null if none was saved
+	 */
+	public MoveJournal getJournal() {
+		return journal;
+	}
+
+	//=========================================================================
+	// Files
+	//=========================================================================
+
+	/**
+	 * Writes this game as the only record of a file, replacing anything the
+	 * file held before.
+	 *
+	 * @param file is the file to write
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			writeFully(channel, encode());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Adds this game as a new record at the end of an archive, creating the
+	 * archive if it does not exist.
+	 *
+	 * @param archive is the archive file
+	 * @throws IOException if the archive could not be written
+	 */
+	public void appendTo(File archive) throws IOException {
+		FileChannel channel = FileChannel.open(archive.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		try {
+			writeFully(channel, encode());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads a file holding a single game.
+	 *
+	 * @param file is the file to read
+	 * @return the game
+	 * @throws IOException if the file could not be read or is not valid
+	 */
+	public static GameFile read(File file) throws IOException {
+		return read(file, 0);
+	}
+
+	/**
+	 * Reads one game from an archive.
+	 *
+	 * @param archive is the archive file
+	 * @param index is the number of the record to read, 0 for the first
+	 * @return the game
+	 * @throws IOException if the archive could not be read, is not valid, or
+	 *         has no record with that index
+	 */
+	public static GameFile read(File archive, int index) throws IOException {
+		ByteBuffer buffer = readFully(archive);
+		for (int i = 0; i < index; i++) {
+			skip(buffer);
+		}
+		return decode(buffer);
+	}
+
+	/**
+	 * Reads every game in an archive.
+	 *
+	 * @param archive is the archive file
+	 * @return the games, in the order they were added
+	 * @throws IOException if the archive could not be read or is not valid
+	 */
+	public static List<GameFile> readAll(File archive) throws IOException {
+		ByteBuffer buffer = readFully(archive);
+		List<GameFile> games = new ArrayList<GameFile>();
+		while (buffer.hasRemaining()) {
+			games.add(decode(buffer));
+		}
+		return games;
+	}
+
+	/**
+	 * @param archive is the archive file
+	 * @return the number of records in the archive
+	 * @throws IOException if the archive could not be read or is not valid
+	 */
+	public static int count(File archive) throws IOException {
+		ByteBuffer buffer = readFully(archive);
+		int count = 0;
+		while (buffer.hasRemaining()) {
+			skip(buffer);
+			count++;
+		}
+		return count;
+	}
+
+	//=========================================================================
+	// Encoding
+	//=========================================================================
+
+	/**
+	 * @return a buffer holding this game as a single record, ready to be
+	 *         written
+	 */
+	public ByteBuffer encode() {
+		boolean wide = !shape.isStandard();
+		int cellBytes = cells.length * (wide ? 2 : 1);
+		int length = HEADER + BODY + cellBytes + CHECKSUM
+				+ (hasDealId ? 8 : 0) + (wide ? 2 : 0);
+		int size = 0;
+		int current = 0;
+		if (journal != null) {
+			size = journal.getSize();
+			current = journal.getCurrent();
+			length += cellBytes + 8 + 4 * size;
+			for (int i = 0; i < size; i++) {
+				if (journal.getKind(i) == MoveJournal.SHUFFLE) {
+					length += cellBytes;
+				}
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(MAGIC);
+		buffer.putShort((short)VERSION);
+		buffer.putShort((short)((journal != null ? FLAG_JOURNAL : 0)
+				| (hasDealId ? FLAG_DEAL : 0) | (wide ? FLAG_SHAPE : 0)));
+		buffer.putInt(length);
+		buffer.put((byte)shufflesRemaining);
+		buffer.put((byte)startShuffles);
+		if (hasDealId) {
+			buffer.putLong(dealId);
+		}
+		if (wide) {
+			buffer.put((byte)shape.getSuits());
+			buffer.put((byte)shape.getRanks());
+		}
+		putCells(buffer, cells, wide);
+		if (journal != null) {
+			short[] start = new short[cells.length];
+			journal.getStartCells(start);
+			putCells(buffer, start, wide);
+			buffer.putInt(size);
+			buffer.putInt(current);
+			for (int i = 0; i < size; i++) {
+				if (journal.getKind(i) == MoveJournal.SWAP) {
+					buffer.putInt((journal.getSwapA(i) << 12)
+							| journal.getSwapB(i));
+				} else {
+					buffer.putInt(SHUFFLE_ENTRY);
+					putCells(buffer, journal.getPermutation(i), wide);
+				}
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int)crc.getValue());
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads one record, leaving the buffer positioned at the next.
+	 *
+	 * @param buffer holds the record at its position
+	 * @return the game
+	 * @throws IOException if the record is not valid
+	 */
+	public static GameFile decode(ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		int length = checkHeader(buffer);
+
+		// the checksum covers the whole record, so check it before anything
+		// else is trusted. A heap buffer is checked where it is; any other
+		// is copied first.
+		ByteBuffer in;
+		if (buffer.hasArray()) {
+			buffer.position(start);
+			in = buffer.slice();
+			buffer.position(start + length);
+		} else {
+			byte[] record = new byte[length];
+			buffer.position(start);
+			buffer.get(record);
+			in = ByteBuffer.wrap(record);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(in.array(), in.arrayOffset(), length - CHECKSUM);
+		if (in.getInt(length - CHECKSUM) != (int)crc.getValue()) {
+			throw new IOException("Save file is damaged.");
+		}
+		in.position(6);
+		int flags = in.getShort();
+		in.position(HEADER);
+		in.limit(length - CHECKSUM);
+		try {
+			return decodeBody(in, flags);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Invalid record length.", e);
+		}
+	}
+
+	/**
+	 * Reads everything in a record after the header, checking it against
+	 * itself.
+	 */
+	private static GameFile decodeBody(ByteBuffer in, int flags)
+			throws IOException {
+		GameFile game = new GameFile();
+		game.shufflesRemaining = in.get();
+		game.startShuffles = in.get();
+		if ((flags & FLAG_DEAL) != 0) {
+			game.setDealId(in.getLong());
+		}
+		boolean wide = (flags & FLAG_SHAPE) != 0;
+		game.shape = BoardShape.STANDARD;
+		if (wide) {
+			int suits = in.get();
+			int ranks = in.get();
+			try {
+				game.shape = BoardShape.of(suits, ranks);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Invalid board size in save file.", e);
+			}
+		}
+		game.cells = new short[game.shape.getSlots()];
+		getCells(in, game.cells, wide);
+		if (game.shufflesRemaining < 0
+				|| game.startShuffles > Solver.MAX_SHUFFLES
+				|| game.shufflesRemaining > game.startShuffles) {
+			throw new IOException("Invalid number of shuffles.");
+		}
+		BoardState board = new BoardState(game.shape);
+		setCells(board, game.cells);
+		if ((flags & FLAG_JOURNAL) != 0) {
+			game.journal = decodeJournal(in, in.limit(), game.shape, wide);
+			// a game cannot have been shuffled more than it could be, even
+			// if some of its shuffles have been undone
+			if (game.journal.countShuffles()
+					> game.startShuffles - game.shufflesRemaining
+					|| game.journal.countAllShuffles() > game.startShuffles) {
+				throw new IOException("Journal has too many shuffles.");
+			}
+			game.journal.jumpTo(board, game.journal.getCurrent());
+			short[] check = new short[game.cells.length];
+			board.getCells(check);
+			if (!Arrays.equals(check, game.cells)) {
+				throw new IOException("Journal does not match the board.");
+			}
+		}
+		if (in.hasRemaining()) {
+			throw new IOException("Invalid record length.");
+		}
+		return game;
+	}
+
+	/**
+	 * Rebuilds an undo journal by making each saved entry to a board.
+	 */
+	private static MoveJournal decodeJournal(ByteBuffer in, int end,
+			BoardShape shape, boolean wide) throws IOException {
+		int slots = shape.getSlots();
+		short[] cells = new short[slots];
+		short[] before = new short[slots];
+		short[] permutation = new short[slots];
+		getCells(in, cells, wide);
+		BoardState board = new BoardState(shape);
+		setCells(board, cells);
+		MoveJournal journal = new MoveJournal();
+		journal.reset(board);
+
+		int size = in.getInt();
+		int current = in.getInt();
+		if (size < 0 || current < 0 || current > size
+				|| size > (end - in.position()) / 4) {
+			throw new IOException("Invalid journal length.");
+		}
+		for (int i = 0; i < size; i++) {
+			int entry = in.getInt();
+			if (entry != SHUFFLE_ENTRY) {
+				int a = entry >> 12;
+				int b = entry & 0xFFF;
+				if (a < 0 || a >= slots || b >= slots) {
+					throw new IOException("Invalid swap in journal.");
+				}
+				board.swap(a, b);
+				journal.recordSwap(a, b);
+			} else {
+				board.getCells(before);
+				getCells(in, permutation, wide);
+				for (int p = 0; p < slots; p++) {
+					int from = permutation[p];
+					if (from < 0 || from >= slots) {
+						throw new IOException("Invalid shuffle in journal.");
+					}
+					cells[p] = before[from];
+				}
+				setCells(board, cells);
+				journal.recordShuffle(before, board);
+			}
+		}
+		journal.jumpTo(board, current);
+		return journal;
+	}
+
+	//=========================================================================
+	// Helpers
+	//=========================================================================
+
+	/**
+	 * Checks the header of the record at the position of buffer, and moves
+	 * past the header.
+	 *
+	 * @return the length of the record
+	 */
+	private static int checkHeader(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER) {
+			throw new IOException("Save file is too short.");
+		}
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a carpet solitaire save file.");
+		}
+		int version = buffer.getShort();
+		if (version != VERSION) {
+			throw new IOException("Unsupported save file version " + version
+					+ ".");
+		}
+		buffer.getShort();
+		int length = buffer.getInt();
+		if (length < HEADER + BODY + CHECKSUM
+				|| length - HEADER > buffer.remaining()) {
+			throw new IOException("Invalid record length.");
+		}
+		return length;
+	}
+
+	/**
+	 * Moves past the record at the position of buffer, without reading it.
+	 */
+	private static void skip(ByteBuffer buffer) throws IOException {
+		int start = buffer.position();
+		int length = checkHeader(buffer);
+		buffer.position(start + length);
+	}
+
+	/**
+	 * Sets the cells of a board, reporting an invalid layout as an
+	 * IOException.
+	 */
+	private static void setCells(BoardState board, short[] cells)
+			throws IOException {
+		try {
+			board.setCells(cells);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid board in save file.", e);
+		}
+	}
+
+	/**
+	 * Writes cells or a permutation, a short each if wide and otherwise a
+	 * byte each.
+	 */
+	private static void putCells(ByteBuffer buffer, short[] cells,
+			boolean wide) {
+		for (int i = 0; i < cells.length; i++) {
+			if (wide) {
+				buffer.putShort(cells[i]);
+			} else {
+				buffer.put((byte)cells[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads cells or a permutation written by putCells.
+	 */
+	private static void getCells(ByteBuffer buffer, short[] cells,
+			boolean wide) {
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = wide ? buffer.getShort() : buffer.get();
+		}
+	}
+
+	/**
+	 * Reads a whole file into a buffer, closing the file before returning
+	 * so that it can be written again at once.
+	 */
+	private static ByteBuffer readFully(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Save file is too long.");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("Save file changed while reading.");
+				}
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes every remaining byte of buffer.
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
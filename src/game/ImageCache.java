@@ -0,0 +1,333 @@
+package game;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * Decodes each card image once and shares it between every CardImage that
+ * shows it, for the life of the program. Icons are looked up by suit and
+ * face value, so there are only 53 of them: one for each card of the
+ * standard deck and one for the gray blank space. Cards that are only on
+ * larger boards have no image, and are drawn by BoardView instead.
+ *
+ * At startup, preload decodes every image at once on a pool of threads,
+ * while the window is being built. If the folder holds an atlas, a single
+ * image with every card in it, that one file is read instead of the 53
+ * separate images. Running this class packs the separate images into an
+ * atlas.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class ImageCache {
+	/**
+	 * The folder that holds the card images.
+	 */
+	public static final String FOLDER = "cardImages/";
+	/**
+	 * The atlas, which has a row for each suit, with a column for each face
+	 * value and the gray blank space after the kings of the first row.
+	 */
+	public static final String ATLAS = FOLDER + "atlas.png";
+	/**
+	 * The column of the atlas that holds the gray blank space.
+	 */
+	public static final int GRAY_COLUMN = BoardShape.STANDARD.getRanks();
+
+	// the cards that have images
+	private static final BoardShape DECK = BoardShape.STANDARD;
+	// indexed by cell value on the standard board, with the blank space at
+	// BoardState.GAP
+	private static final ImageIcon[] icons = new ImageIcon[DECK.getCodes()];
+	// the atlas, if one was read
+	private static BufferedImage atlas;
+	// counted down as each image is decoded, once preload has been called
+	private static CountDownLatch loading;
+	private static long loadNanos;
+
+	/**
+	 * Not used; every method is static.
+	 */
+	private ImageCache() {
+	}
+
+	/**
+	 * Starts decoding every image in the background, and returns at once.
+	 * getIcon waits for them to be done.
+	 */
+	public static void preload() {
+		final long start = System.nanoTime();
+		final File atlasFile = new File(ATLAS);
+		final boolean packed = atlasFile.isFile();
+		final CountDownLatch latch = new CountDownLatch(packed ? 1
+				: DECK.getSuits() * DECK.getRanks() + 1);
+		synchronized (icons) {
+			if (loading != null) {
+				return;
+			}
+			loading = latch;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(packed ? 1
+				: Runtime.getRuntime().availableProcessors(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Images");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		if (packed) {
+			pool.execute(new Runnable() {
+				public void run() {
+					readAtlas(atlasFile);
+					finish(latch, start);
+				}
+			});
+		} else {
+			for (int suit = 1; suit <= DECK.getSuits(); suit++) {
+				for (int number = 1; number <= DECK.getRanks(); number++) {
+					submit(pool, suit, number, latch, start);
+				}
+			}
+			submit(pool, 0, DECK.getGapNumber(), latch, start);
+		}
+		// the threads end once every image is done
+		pool.shutdown();
+	}
+
+	/**
+	 * @return true once every image started by preload has been decoded
+	 */
+	public static boolean isLoaded() {
+		synchronized (icons) {
+			return loading != null && loading.getCount() == 0;
+		}
+	}
+
+	/**
+	 * @return the time preload took to decode every image, in milliseconds,
+	 *         or -1 if it has not finished
+	 */
+	public static long getLoadMillis() {
+		synchronized (icons) {
+			return isLoaded() ? loadNanos / 1000000 : -1;
+		}
+	}
+
+	/**
+	 * @return the atlas read by preload, or null if the separate images were
+	 *         read instead. The image must not be changed.
+	 */
+	public static BufferedImage getAtlas() {
+		awaitPreload();
+		synchronized (icons) {
+			return atlas;
+		}
+	}
+
+	/**
+	 * Returns the shared icon for a card, decoding it the first time it is
+	 * asked for, or waiting for preload to decode it. The icon must not be
+	 * changed.
+	 *
+	 * @param suit is 1-4 for a card, or 0 for a blank space
+	 * @param number is 1-13 for a card, or any number for a blank space
+	 * @return the icon, or null for a card that is not in the standard deck
+	 */
+	public static ImageIcon getIcon(int suit, int number) {
+		if (suit > DECK.getSuits()
+				|| (suit != 0 && number > DECK.getRanks())) {
+			return null;
+		}
+		awaitPreload();
+		int code = code(suit, number);
+		synchronized (icons) {
+			ImageIcon icon = icons[code];
+			if (icon == null) {
+				icon = decode(suit, number);
+				icons[code] = icon;
+			}
+			return icon;
+		}
+	}
+
+	/**
+	 * @param suit is 1-4 for a card, or 0 for a blank space
+	 * @param number is 1-13 for a card, or 14 for a blank space
+	 * @return the path of the image file for that card
+	 */
+	public static String getPath(int suit, int number) {
+		if (suit == 0) {
+			return FOLDER + "gray.gif";
+		}
+		return FOLDER + Main.NUMBERS[number - 1] + Main.SUITS[suit - 1]
+				+ ".gif";
+	}
+
+	/**
+	 * Packs every card image into ATLAS, which is then read at startup
+	 * instead of the separate images.
+	 *
+	 * @param args is ignored
+	 * @throws IOException if an image could not be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		BufferedImage image = new BufferedImage(
+				(GRAY_COLUMN + 1) * Main.CARD_WIDTH,
+				DECK.getSuits() * Main.CARD_HEIGHT,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics g = image.getGraphics();
+		try {
+			for (int suit = 1; suit <= DECK.getSuits(); suit++) {
+				for (int number = 1; number <= DECK.getRanks(); number++) {
+					g.drawImage(read(getPath(suit, number)),
+							(number - 1) * Main.CARD_WIDTH,
+							(suit - 1) * Main.CARD_HEIGHT, null);
+				}
+			}
+			g.drawImage(read(getPath(0, DECK.getGapNumber())),
+					GRAY_COLUMN * Main.CARD_WIDTH, 0, null);
+		} finally {
+			g.dispose();
+		}
+		ImageIO.write(image, "png", new File(ATLAS));
+	}
+
+	//=========================================================================
+	// Helpers
+	//=========================================================================
+
+	/**
+	 * @return the index of a card in icons
+	 */
+	private static int code(int suit, int number) {
+		return suit == 0 ? BoardState.GAP : DECK.code(suit, number);
+	}
+
+	/**
+	 * Waits for preload to finish, if it has been called. Called on the
+	 * event dispatch thread, this leaves the window blank until the images
+	 * are ready.
+	 */
+	public static void awaitPreload() {
+		CountDownLatch latch;
+		synchronized (icons) {
+			latch = loading;
+		}
+		if (latch == null) {
+			return;
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Decodes the image of a single card on the pool.
+	 */
+	private static void submit(ExecutorService pool, final int suit,
+			final int number, final CountDownLatch latch, final long start) {
+		pool.execute(new Runnable() {
+			public void run() {
+				ImageIcon icon = decode(suit, number);
+				synchronized (icons) {
+					icons[code(suit, number)] = icon;
+				}
+				finish(latch, start);
+			}
+		});
+	}
+
+	/**
+	 * Counts down one decoded image, noting the time when it is the last.
+	 */
+	private static void finish(CountDownLatch latch, long start) {
+		synchronized (icons) {
+			latch.countDown();
+			if (latch.getCount() == 0) {
+				loadNanos = System.nanoTime() - start;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the image of a single card. An image that cannot be read gives
+	 * an icon with no size, as ImageIcon does.
+	 */
+	private static ImageIcon decode(int suit, int number) {
+		String path = getPath(suit, number);
+		try {
+			return new ImageIcon(read(path));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new ImageIcon(path);
+		}
+	}
+
+	/**
+	 * Reads an image file, without the cache of ImageIcon.
+	 */
+	private static BufferedImage read(String path) throws IOException {
+		BufferedImage image = ImageIO.read(new File(path));
+		if (image == null) {
+			throw new IOException("Not an image: " + path);
+		}
+		return image;
+	}
+
+	/**
+	 * Reads the atlas and cuts an icon for every card from it, falling back
+	 * on the separate images if it cannot be read.
+	 */
+	private static void readAtlas(File file) {
+		BufferedImage image;
+		try {
+			image = ImageIO.read(file);
+		} catch (IOException e) {
+			e.printStackTrace();
+			image = null;
+		}
+		if (image == null
+				|| image.getWidth() < (GRAY_COLUMN + 1) * Main.CARD_WIDTH
+				|| image.getHeight() < DECK.getSuits() * Main.CARD_HEIGHT) {
+			// getIcon decodes each image as it is asked for
+			return;
+		}
+		synchronized (icons) {
+			atlas = image;
+			for (int suit = 1; suit <= DECK.getSuits(); suit++) {
+				for (int number = 1; number <= DECK.getRanks(); number++) {
+					icons[code(suit, number)] = tile(image, suit - 1,
+							number - 1);
+				}
+			}
+			icons[BoardState.GAP] = tile(image, 0, GRAY_COLUMN);
+		}
+	}
+
+	/**
+	 * @return an icon that shares the pixels of one card in the atlas
+	 */
+	private static ImageIcon tile(BufferedImage image, int row, int column) {
+		return new ImageIcon(image.getSubimage(column * Main.CARD_WIDTH,
+				row * Main.CARD_HEIGHT, Main.CARD_WIDTH, Main.CARD_HEIGHT));
+	}
+}
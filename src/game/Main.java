@@ -1,46 +1,35 @@
 package game;
 
 import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.GridLayout;
+import java.awt.Cursor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.Stack;
+import java.util.Random;
+import java.util.concurrent.Callable;
 
-import javax.swing.BorderFactory;
+import javax.swing.Box;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
-import javax.swing.JLayeredPane;
+import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
-import javax.swing.JPanel;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * A carpet solitaire game.
- * Game state can be saved and loaded from a file.
+ * Game state can be saved and loaded from a file, and the game being played
+ * is kept as it is played, to be picked up again at the next start.
  * Unlimited undo functionality, redo is allowed until a new move is made
  * 
  * http://git.io/hy6V
@@ -82,41 +71,101 @@ public class Main {
 	"king" };
 	public static List<CardImage> Deck = new ArrayList<CardImage>();
 	public static List<CardImage> playGrid = new ArrayList<CardImage>();
-	public static JPanel playArea = new JPanel();
-	public static JFrame window = new JFrame("Cards");
+	// draws the board; playGrid is kept for code that works with cards
+	public static BoardView view = new BoardView();
+	// created in main, so that the game logic can be used without a display
+	public static JFrame window;
 	public static File filepath = new File("");
 	
+	// the game rules are checked against this board; playGrid is only the
+	// view of it
+	public static BoardState board = new BoardState();
+	public static Random random = new Random();
+	// indexed by cell value, and one for each blank space; made by
+	// loadImages for the size of board
+	private static CardImage[] faces = new CardImage[0];
+	private static CardImage[] blanks = new CardImage[0];
+	public static BoardGeometry geometry = new BoardGeometry(
+			board.getShape().getColumns(), board.getShape().getSuits());
+	
+	/**
+	 * Where the game being played is kept, to be picked up again at the
+	 * next start.
+	 */
+	public static final Autosave autosave = new Autosave(
+			new File(System.getProperty("user.home"), ".carpet-solitaire"));
+	/**
+	 * The result of every game played, kept across sessions.
+	 */
+	public static final StatisticsLog statistics = new StatisticsLog(
+			new File(System.getProperty("user.home"),
+					".carpet-solitaire-stats"));
+	
+	// file types offered when opening and saving games
+	public static final String SAVE_EXTENSION = "carpet";
+	private static final FileNameExtensionFilter SAVE_FILES =
+			new FileNameExtensionFilter("Carpet Solitaire games",
+					SAVE_EXTENSION);
+	private static final FileNameExtensionFilter XML_FILES =
+			new FileNameExtensionFilter("xml files", "xml");
+	
 	// these menu items need to be enabled and disabled from a variety of
 	// places, so they are declared here
 	public static JMenuItem undoItem = new JMenuItem("Undo");
 	public static JMenuItem redoItem = new JMenuItem("Redo");
-		
-	// frequently used numbers
-	public static final int suitsInOneDeck = 4;
-	public static final int cardsInOneSuit = 13;
+	// these are clicked by checkMoves when the player is stuck
+	public static JMenuItem newGameItem = new JMenuItem("New Game");
+	public static JMenuItem replayItem = new JMenuItem("Replay");
+	public static JMenuItem shuffleItem = new JMenuItem("Shuffle");
 	
 	// fields needed for keeping track of the game state
 	public static int shufflesRemaining;
 	public static int loadedShuffles = -1;
-	public static Stack<List<CardImage>> gameStates =
-			new Stack<List<CardImage>>();
-	public static int currentState;
-	public static int[] shuffleLocations = new int[2];
+	// picks the layout and every shuffle of the game; see Deal
+	public static long dealId;
+	public static MoveJournal journal = new MoveJournal();
 	public static int gamesPlayed;
 	public static int gamesWon;
+	// the moves and shuffles made in the current game, and when it started
+	private static int gameMoves;
+	private static int gameShuffles;
+	private static long gameStart;
+	// changed whenever the game is replaced, so that a game still being
+	// loaded can tell that it is no longer wanted
+	private static int gameTicket;
+	// the number of files being read or written in the background
+	private static int backgroundTasks;
+	// when main was called, for measuring how long the game takes to start,
+	// which is only done when the carpet.timing property is true
+	private static final boolean TIMING = Boolean.getBoolean("carpet.timing");
+	private static long startNanos;
+	// used by getHint, only ever on the background thread, created when
+	// first needed, and the positions it may search before it gives up, a
+	// few tens of milliseconds
+	private static Solver hintSolver;
+	private static final long HINT_NODES = 250000;
+	// used by adviseShuffle, created when first needed, and the time it may
+	// take, so that the advice comes within a tenth of a second
+	private static ShufflePlanner shufflePlanner;
+	private static final long ADVICE_MILLIS = 80;
+	// shows the chance of winning on the menu bar; created in main, so that
+	// nothing is estimated without a window
+	private static WinEstimator winEstimator;
+	private static final JLabel estimateLabel = new JLabel();
 	
 	//=========================================================================
 	// Functions
 	//=========================================================================
 	
 	/**
-	 * Returns the index of a card in playArea.
+	 * Returns the index of a card on the board.
 	 * 
-	 * @param card a CardImage object in playArea
-	 * @return the index of card in playArea
+	 * @param card a CardImage object in playGrid
+	 * @return the index of card in playGrid
 	 */
 	public static int getCardIndex(CardImage card) {
-		return playGrid.indexOf(card);
+		// every change to playGrid records the new position in the card
+		return card.getSlot();
 	}
 
 	/**
@@ -129,23 +178,14 @@ public class Main {
 
 	/**
 	 * @return the number of cards that are in the correct positions,
-	 * 		56 for a win.
+	 * 		every slot of the board for a win.
 	 */
 	public static int checkWin() {
-		int correct = 0;
-		
-		// look at every card in the grid, test if they are ordered.
-		// tests involving the suit are unnecessary, because the only way for
-		// all four rows of cards to be correctly ordered via legal moves is
-		// for every card in a row to be of the same suit.
-		for (int i = 0; i < playGrid.size(); i++) {
-			if (getCard(i).getNumber() - 1 == i % (cardsInOneSuit + 1)) {
-				correct++;
-			}
-		}
+		int correct = board.countCorrect();
 		
 		// display a win message, update statistics, and begin a new game
-		if (correct == playGrid.size()) {
+		if (board.isWon()) {
+			endGame(true);
 			JOptionPane.showMessageDialog(window,
 					"You have won Carpet Solitaire!");
 			gamesPlayed++;
@@ -157,18 +197,104 @@ public class Main {
 		return correct;
 	}
 	
+	/**
+	 * Records the result of the current game in statistics, unless it is
+	 * being left before any move was made, or is on a board other than the
+	 * standard one, whose results could not be compared
+	 * 
+	 * @param won is true if the game was won, false if it is being left
+	 */
+	public static void endGame(boolean won) {
+		if ((won || gameMoves > 0) && board.getShape().isStandard()) {
+			statistics.record(dealId, won, gameMoves, gameShuffles, gameStart,
+					System.currentTimeMillis());
+		}
+		gameMoves = 0;
+		gameShuffles = 0;
+	}
+	
+	/**
+	 * @return the text of the Statistics dialog, for this session and for
+	 * 		every game recorded
+	 */
+	public static String getStatisticsText() {
+		int[] today = statistics.getDayTotals(System.currentTimeMillis());
+		String text = "Statistics for this session:\n\n"
+				+ "Games Played: " + gamesPlayed + "\n"
+				+ "Games Won: " + gamesWon + "\n"
+				+ "Percent Won: "
+				+ (((float)gamesWon) / (gamesPlayed) * 100) + "%\n\n"
+				+ "All games finished:\n\n"
+				+ "Games Played: " + statistics.getGames() + "\n"
+				+ "Games Won: " + statistics.getWins() + "\n"
+				+ "Percent Won: "
+				+ (float)(statistics.getWinRate() * 100) + "%\n"
+				+ "Today: " + today[1] + " won of " + today[0] + "\n"
+				+ "Current Streak: " + statistics.getCurrentStreak() + "\n"
+				+ "Longest Streak: " + statistics.getLongestStreak() + "\n";
+		if (statistics.getWins() > 0) {
+			text += "Moves to Win: " + statistics.getMovesPercentile(0.5)
+					+ " (median), " + statistics.getMovesPercentile(0.9)
+					+ " (90%)\n"
+					+ "Seconds to Win: " + statistics.getSecondsPercentile(0.5)
+					+ " (median), " + statistics.getSecondsPercentile(0.9)
+					+ " (90%)\n";
+		}
+		return text + "\nResetting only resets this session.";
+	}
+	
+	/**
+	 * Checks if any legal move remains, and if not, offers to shuffle, to
+	 * restart this game, or to start a new one. The board keeps a count of
+	 * the blank spaces that can still be filled, so this takes no time when
+	 * moves remain.
+	 */
+	public static void checkMoves() {
+		if (window == null || board.hasMoves() || board.isWon()) {
+			return;
+		}
+		final String[] options = shufflesRemaining > 0
+				? new String[] {"Shuffle", "Restart This Game", "New Game",
+						"Close"}
+				: new String[] {"Restart This Game", "New Game", "Close"};
+		int response = JOptionPane.showOptionDialog(
+				window, // root pane
+				"There are no more legal moves." // text
+				+ (shufflesRemaining > 0
+						? "\nYou have " + shufflesRemaining
+								+ " shuffle(s) remaining."
+						: "\nYou have no shuffles remaining."),
+				"No Moves Left", // window title
+				JOptionPane.DEFAULT_OPTION, // dialog type
+				JOptionPane.INFORMATION_MESSAGE, // icon type
+				null, // no custom icon
+				options, // button text
+				options[0]); // default option
+		if (response < 0) {
+			return;
+		}
+		String choice = options[response];
+		if (choice.equals("Shuffle")) {
+			shuffleItem.doClick();
+		} else if (choice.equals("Restart This Game")) {
+			replayItem.doClick();
+		} else if (choice.equals("New Game")) {
+			newGameItem.doClick();
+		}
+	}
+	
 	/**
 	 * Checks to see if an undo/redo operation is possible, and disables the
 	 * undo/redo menu item if it is not.
 	 */
 	public static void checkUndo(){
-		if(currentState > 0){
+		if(journal.canUndo()){
 			undoItem.setEnabled(true);
 		} else {
 			undoItem.setEnabled(false);
 		}
 		
-		if(gameStates.size() > currentState + 1){
+		if(journal.canRedo()){
 			redoItem.setEnabled(true);
 		} else {
 			redoItem.setEnabled(false);
@@ -176,175 +302,390 @@ public class Main {
 	}
 
 	/**
-	 * Restores all cards to their indexed locations without changing order
+	 * Redraws every slot whose card has changed, without changing order,
+	 * and drops any card being dragged, since the slot it was picked up
+	 * from may now hold another card
 	 */
 	public static void redrawInPlace() {
-		// this is a brute-force solution: clear every object from the grid,
-		// then add them all back again in the desired order and repaint
-		playArea.removeAll();
+		// view only draws the slots whose cards have changed
 		for (int i = 0; i < playGrid.size(); i++) {
-			playArea.add(playGrid.get(i));
+			redrawSlot(i);
 		}
-		playArea.revalidate();
-		playArea.repaint();
+		view.endDrag();
+		view.clearHighlight();
 		checkUndo();
+		updateEstimate();
+	}
+	
+	/**
+	 * Redraws one slot of the board, if its card has changed since it was
+	 * last drawn
+	 * 
+	 * @param slot is the index of the card in playGrid
+	 */
+	public static void redrawSlot(int slot) {
+		view.updateSlot(slot);
 	}
 
+	/**
+	 * Rebuilds playGrid so that it shows the current board
+	 */
+	public static void syncGrid() {
+		playGrid.clear();
+		int blank = 0;
+		for (int i = 0; i < board.getShape().getSlots(); i++) {
+			if (board.isGap(i)) {
+				playGrid.add(blanks[blank++]);
+			} else {
+				playGrid.add(faces[board.get(i)]);
+			}
+		}
+		indexGrid();
+	}
+	
+	/**
+	 * Records the position of every card in playGrid, after playGrid has
+	 * been replaced
+	 */
+	public static void indexGrid() {
+		for (int i = 0; i < playGrid.size(); i++) {
+			playGrid.get(i).setSlot(i);
+		}
+	}
+	
 	/**
 	 * Swaps the location of two cards and makes that change visible
 	 * 
 	 * @param a is the first card, a CardImage
-	 * @param b the second card, referenced by its location in playArea
+	 * @param b the second card, referenced by its location in playGrid
 	 */
 	public static void swapCards(CardImage a, CardImage b) {
-		recordMove();
+		int indexA = getCardIndex(a);
+		int indexB = getCardIndex(b);
+		board.swap(indexA, indexB);
 		
-		// swap
-		Collections.swap(playGrid, getCardIndex(a), getCardIndex(b));
-
-		// make changes visible
-		redrawInPlace();
+		// record the swap for the undo/redo system; any moves that had been
+		// undone can no longer be redone
+		journal.recordSwap(indexA, indexB);
+		autosave.swap(indexA, indexB);
+		gameMoves++;
+		showSwap(indexA, indexB);
 	}
-
+	
 	/**
-	 * Adds the current game state to the undo/redo system, making sure that
-	 * there are no stored game states after this new move
+	 * Makes a swap that has already been made to the board visible, and
+	 * drops any card being dragged
+	 * 
+	 * @param indexA is the first position swapped
+	 * @param indexB is the second position swapped
 	 */
-	public static void recordMove() {
-		// only if one or more undos have happened, clear all moves after the
-		// current state, because you should not be able to redo after
-		// making a new move
-		while(gameStates.size() > currentState){
-			gameStates.pop();
+	public static void showSwap(int indexA, int indexB) {
+		CardImage a = getCard(indexA);
+		CardImage b = getCard(indexB);
+		playGrid.set(indexA, b);
+		playGrid.set(indexB, a);
+		a.setSlot(indexB);
+		b.setSlot(indexA);
+		redrawSlot(indexA);
+		redrawSlot(indexB);
+		view.endDrag();
+		view.clearHighlight();
+		checkUndo();
+		updateEstimate();
+	}
+	
+	/**
+	 * Starts estimating the chance of winning from the current position, in
+	 * the background, cancelling the estimate for the last one. A position
+	 * already estimated is shown at once.
+	 */
+	public static void updateEstimate() {
+		if (winEstimator != null) {
+			winEstimator.estimate(board, shufflesRemaining);
 		}
+	}
+	
+	/**
+	 * Shows an estimate of the chance of winning on the menu bar, with a ~
+	 * while more games are still being played out.
+	 * 
+	 * @param estimate is the estimate for the current position
+	 */
+	private static void showEstimate(WinEstimator.Estimate estimate) {
+		estimateLabel.setText(String.format("Chance of winning: %s%.1f%%  ",
+				estimate.isDone() ? "" : "~", estimate.getChance() * 100));
+		estimateLabel.setToolTipText("From " + estimate.getSamples()
+				+ " games played out from here by the computer");
+	}
 
-		// record state for undo/redo system
-		// state must be recorded prior to the swap
-		// the undo/redo functions handle states after swaps if they are called
-		gameStates.add(new ArrayList<CardImage>(playGrid));
-		currentState++;
+	/**
+	 * Suggests the next move, by outlining the card to move and the space to
+	 * move it to. The move is found in the background, and dropped if the
+	 * position changes before it is ready.
+	 */
+	public static void showHint() {
+		final BoardState position = new BoardState(board);
+		final int shuffles = shufflesRemaining;
+		final long id = dealId;
+		final int ticket = gameTicket;
+		Background.submit(new Callable<Integer>() {
+			public Integer call() {
+				return getHint(position, shuffles, id);
+			}
+		}, new Background.Callback<Integer>() {
+			public void done(Integer move, Exception error) {
+				if (ticket != gameTicket || shuffles != shufflesRemaining
+						|| position.getHash() != board.getHash()) {
+					return;
+				}
+				if (error != null) {
+					error.printStackTrace();
+				} else if (move >= 0) {
+					view.setHighlight(new int[] {Solver.moveFrom(move),
+							Solver.moveTo(move)}, 2);
+				} else {
+					JOptionPane.showMessageDialog(window,
+							"There are no useful moves left."
+							+ "\nTry shuffling, or start this game again.",
+							"Hint", JOptionPane.INFORMATION_MESSAGE);
+				}
+			}
+		});
 	}
 
 	/**
-	 * Returns the index of the card closest to it, not including it
+	 * Finds the next move to suggest. A move from a winning line is
+	 * suggested if the solver can find one within HINT_NODES positions, and
+	 * otherwise the move that does the most for the ordered runs at the
+	 * start of each row. The shuffles of a deal are known from its ID, so
+	 * the solver's line may use the shuffles left. Only called on the
+	 * background thread.
 	 * 
-	 * @param it CardImage to compare against
-	 * @return the index of the card nearest to the point p
-	 */
-	public static CardImage getNearest(CardImage it) {
-		double Nearest = 9999.9;
-		// failsafe, if for some reason a nearest card isn't found,
-		// swap it with itself
-		int indexOfNearest = getCardIndex(it);
-		
-		// look at all cards, pick the one closest to the center of it
-		for (int i = 0; i < playGrid.size(); i++) {
-			if (getCardIndex(it) != getCardIndex(playGrid.get(i))) {
-				double current = (it.getCenter().distance(playGrid.get(i)
-						.getCenter()));
-				if (current < Nearest) {
-					Nearest = current;
-					indexOfNearest = playGrid.indexOf(playGrid.get(i));
+	 * @param position is the position to suggest a move for
+	 * @param shuffles is the number of shuffles remaining
+	 * @param id is the ID of the deal being played
+	 * @return a move, read with Solver.moveFrom and Solver.moveTo, or -1 if
+	 * 		the only moves left carry an ace from one row to another, or
+	 * 		the winning line shuffles first
+	 */
+	private static int getHint(BoardState position, int shuffles, long id) {
+		int[] moves = new int[MoveGenerator.maxMoves(position.getShape())];
+		int count = MoveGenerator.generate(position, moves);
+		if (count == 0) {
+			return -1;
+		}
+		if (hintSolver == null) {
+			hintSolver = new Solver(18, HINT_NODES);
+		}
+		if (hintSolver.solve(position, shuffles, id) == Solver.SOLVED
+				&& hintSolver.getLineLength() > 0) {
+			int move = hintSolver.getMove(0);
+			return move == Solver.SHUFFLE ? -1 : move;
+		}
+		int choice = Strategy.forName("greedy").choose(position, moves,
+				count, new SplitMix(position.getHash()));
+		return choice < 0 ? -1 : moves[choice];
+	}
+	
+	/**
+	 * Plays the current position out many times with and without a shuffle
+	 * now, in the background, then tells the player which did better. The
+	 * advice is dropped if the position changes before it is ready, and a
+	 * plan still running is cancelled when advice is asked for again.
+	 */
+	public static void adviseShuffle() {
+		if (shufflePlanner == null) {
+			shufflePlanner = new ShufflePlanner();
+		}
+		shufflePlanner.cancel();
+		final ShufflePlanner planner = shufflePlanner;
+		final BoardState position = new BoardState(board);
+		final int shuffles = shufflesRemaining;
+		final int ticket = gameTicket;
+		Background.submit(new Callable<ShufflePlanner.Plan>() {
+			public ShufflePlanner.Plan call() throws InterruptedException {
+				return planner.plan(position, shuffles, ADVICE_MILLIS);
+			}
+		}, new Background.Callback<ShufflePlanner.Plan>() {
+			public void done(ShufflePlanner.Plan plan, Exception error) {
+				if (ticket != gameTicket || shuffles != shufflesRemaining
+						|| position.getHash() != board.getHash()) {
+					return;
+				}
+				if (error != null || plan.getSamples() == 0) {
+					if (error != null) {
+						error.printStackTrace();
+					}
+					return;
 				}
+				JOptionPane.showMessageDialog(window,
+						(plan.shouldShuffle() ? "Shuffling now"
+								: "Playing on without shuffling")
+						+ " looks better."
+						+ "\n\nThis position was played out "
+						+ plan.getSamples() + " times each way."
+						+ String.format("\nShuffling now: %.1f of %d cards"
+								+ " in order, %.1f%% won",
+								plan.getShuffleCards(), plan.getCards(),
+								plan.getShuffleWinRate() * 100)
+						+ String.format("\nPlaying on: %.1f of %d cards"
+								+ " in order, %.1f%% won",
+								plan.getKeepCards(), plan.getCards(),
+								plan.getKeepWinRate() * 100),
+						"Shuffle Advice", JOptionPane.INFORMATION_MESSAGE);
 			}
+		});
+	}
+	
+	/**
+	 * Creates a CardImage for every card and blank space of the board; their
+	 * images are shared through ImageCache, so each is only decoded once.
+	 * Must be called before syncGrid.
+	 */
+	public static void loadImages() {
+		BoardShape shape = board.getShape();
+		Deck.clear();
+		faces = new CardImage[shape.getCodes()];
+		blanks = new CardImage[shape.getSuits()];
+		for (int i = 0; i < shape.getSuits(); i++) {
+			for (int j = 0; j < shape.getRanks(); j++) {
+				Deck.add(new CardImage(i + 1, j + 1, true));
+				faces[shape.code(i + 1, j + 1)] = Deck.get(Deck.size() - 1);
+			}
+		}
+		for (int i = 0; i < blanks.length; i++) {
+			blanks[i] = new CardImage(0, shape.getGapNumber(), false);
+		}
+	}
+	
+	/**
+	 * Changes the size of the board, making everything that is sized by it
+	 * again, and resizing the window to fit. The board is left solved, so a
+	 * game must be started or restored afterwards.
+	 * 
+	 * @param shape is the new size of the board
+	 */
+	public static void setShape(BoardShape shape) {
+		board = new BoardState(shape);
+		geometry = new BoardGeometry(shape.getColumns(), shape.getSuits());
+		journal.reset(board);
+		// before the first call to loadImages, the images are not ready
+		if (!Deck.isEmpty()) {
+			loadImages();
+			syncGrid();
+		}
+		view.rebuild();
+		if (window != null) {
+			window.pack();
 		}
-		return playGrid.get(indexOfNearest);
 	}
 
 	/**
 	 * Sets the cards up in random order, with the gray blanks on the left
 	 */
 	private static void initCards() {
-		// for clarity, here are some values
-		int suitOfGrayCard = 0;
-		int valueOfGrayCard = 14;
-		boolean grayCardDraggable = false;
-		
+		initCards(random.nextLong());
+	}
+	
+	/**
+	 * Sets the cards up as the given deal, with the gray blanks on the left
+	 * 
+	 * @param id is the deal ID, which also picks the result of each shuffle
+	 */
+	private static void initCards(long id) {
 		// clean up from the last game
-		playGrid.clear();
-		gameStates.clear();
-		currentState = 0;
 		shufflesRemaining = 2;
 		
-		// initialize the playing cards in random order
-		Collections.shuffle(Deck);
-		for (int i = 0; i < suitsInOneDeck; i++) {
-			// add a gray card at the start of each row
-			playGrid.add(new CardImage("cardImages/gray.gif", suitOfGrayCard,
-					valueOfGrayCard, grayCardDraggable));
-			for (int j = 0; j < cardsInOneSuit; j++) {
-				playGrid.add(Deck.get(j + (cardsInOneSuit * i)));
-			}
-		}
-		
-		// add all 56 cardImage objects to the playArea
-		for (int i = 0; i < playGrid.size(); i++) {
-			playArea.add(playGrid.get(i));
+		// initialize the playing cards in the order of the deal
+		// redrawInPlace makes them visible
+		gameTicket++;
+		gameMoves = 0;
+		gameShuffles = 0;
+		gameStart = System.currentTimeMillis();
+		dealId = id;
+		Deal.deal(board, id);
+		journal.reset(board);
+		startAutosave();
+		syncGrid();
+		updateTitle();
+	}
+	
+	/**
+	 * Starts the autosave file again with the current game, after it has
+	 * been replaced or restarted.
+	 */
+	private static void startAutosave() {
+		autosave.start(journal, dealId,
+				shufflesRemaining + journal.countShuffles());
+	}
+	
+	/**
+	 * Shows the deal ID in the title of the window, so that the player can
+	 * come back to the same deal.
+	 */
+	private static void updateTitle() {
+		if (window != null) {
+			window.setTitle("Cards - Deal #" + Deal.format(dealId));
 		}
 	}
 	
 	/**
-	 * Saves the current state of the game at the given filepath
+	 * Takes the deal ID of a loaded game, or makes a new one for games saved
+	 * without it, whose shuffles can then not be the same as before.
+	 */
+	private static void loadDealId(GameFile game) {
+		dealId = game.hasDealId() ? game.getDealId() : random.nextLong();
+		updateTitle();
+	}
+	
+	/**
+	 * Saves the current state of the game at the given filepath, as xml if
+	 * the filename ends in .xml and in the binary format of GameFile
+	 * otherwise
 	 * 
 	 * @param filepath is the desired save location and filename.
 	 * @return true if the save file was created successfully; false otherwise
 	 */
 	public static boolean save(File filepath){
-		DocumentBuilderFactory xmlFactory =
-				DocumentBuilderFactory.newInstance();
-        DocumentBuilder xmlBuilder;
-        try{
-        	// setup the document
-        	xmlBuilder = xmlFactory.newDocumentBuilder();
-            Document saveDoc = xmlBuilder.newDocument();
-            
-            // setup the initial node
-            Element game = saveDoc.createElement("Game");
-            saveDoc.appendChild(game);
-            
-            // record shuffles remaining
-            Element shuffle = saveDoc.createElement("Shuffle");
-			game.appendChild(shuffle);
-			Node shuffleData = saveDoc.createTextNode(new Integer(
-					shufflesRemaining).toString());
-			shuffle.appendChild(shuffleData);
-            
-            // append card information
-			for (int i = 0; i < 56; i++) {
-				Element card = saveDoc.createElement("Card");
-				game.appendChild(card);
-				card.setAttribute("id", new Integer(i).toString());
-
-				Element suit = saveDoc.createElement("Suit");
-				card.appendChild(suit);
-				Node suitData =
-						saveDoc.createTextNode(new Integer(
-								getCard(i).getSuit()).toString());
-				suit.appendChild(suitData);
-
-				Element value = saveDoc.createElement("Value");
-				card.appendChild(value);
-				Node valueData =
-						saveDoc.createTextNode(new Integer(
-								getCard(i).getNumber()).toString());
-				value.appendChild(valueData);
+		try {
+			saveTask(filepath).call();
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Copies the current state of the game, to be saved by the returned
+	 * task on any thread while the game goes on. The xml format only keeps
+	 * the board, and the binary format also keeps the undo journal.
+	 * 
+	 * @param filepath is the desired save location and filename.
+	 * @return a task that writes the copy
+	 */
+	public static Callable<Void> saveTask(final File filepath) {
+		if (isXml(filepath)) {
+			final BoardState copy = new BoardState(board);
+			final int shuffles = shufflesRemaining;
+			final long id = dealId;
+			return new Callable<Void>() {
+				public Void call() throws IOException {
+					XmlGameFile.write(filepath, copy, shuffles, id);
+					return null;
+				}
+			};
+		}
+		final GameFile game = new GameFile(board, shufflesRemaining,
+				shufflesRemaining + journal.countShuffles(),
+				new MoveJournal(journal));
+		game.setDealId(dealId);
+		return new Callable<Void>() {
+			public Void call() throws IOException {
+				game.write(filepath);
+				return null;
 			}
-            
-            // try to save the document
-            TransformerFactory transformerFactory =
-            		TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            DOMSource source = new DOMSource(saveDoc);
-            StreamResult streamResult =  new StreamResult(filepath);
-            transformer.transform(source, streamResult);
-            
-            // if we get here before throwing an exception, everything worked
-        	return true;
-        } catch (Exception e){
-        	e.printStackTrace();
-        	return false;
-        }
+		};
 	}
 	
 	/**
@@ -355,66 +696,208 @@ public class Main {
 	 */
 	public static boolean load(File filepath){
 		try {
-			// create a temporary playing grid for operations
-			List<CardImage> loadGrid = new ArrayList<CardImage>();
-
-			// open xml file
-			DocumentBuilderFactory dbFactory =
-					DocumentBuilderFactory.newInstance();
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-			Document savedGame = dBuilder.parse(filepath);
-
-			// read xml file
-			NodeList savedCards = savedGame.getElementsByTagName("Card");
-			if(savedCards.getLength() != 56){
-				throw new Exception("Invalid number of cards in xml file.");
-			}
-			for (int i = 0; i < savedCards.getLength(); i++) {
-				Node currentCardData = savedCards.item(i);
-				Element currentCard = (Element)currentCardData;
-				if(i != new Integer(currentCard.getAttribute("id"))){
-					throw new Exception("Invalid xml game file.");
+			// write changes to the real board only if loading happened
+			// correctly; both formats reject any layout that is not a full
+			// deck
+			restore(read(filepath));
+			return true;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Reads a save file, as xml if the filename ends in .xml and in the
+	 * binary format of GameFile otherwise. Nothing else is changed, so this
+	 * may be called on any thread.
+	 * 
+	 * @param filepath is the save file location and filename.
+	 * @return the game read
+	 * @throws IOException if the file could not be read or is not valid
+	 */
+	public static GameFile read(File filepath) throws IOException {
+		return isXml(filepath) ? XmlGameFile.read(filepath)
+				: GameFile.read(filepath);
+	}
+	
+	/**
+	 * Saves the game in the background, so that a slow disk never stops the
+	 * window from responding. The game is copied first, so play can go on
+	 * while it is written.
+	 * 
+	 * @param filepath is the desired save location and filename.
+	 * @param saved is run once the game is saved, or is null
+	 * @param failed is run after telling the player that the game could not
+	 * 		be saved, or is null
+	 */
+	public static void saveInBackground(File filepath, final Runnable saved,
+			final Runnable failed) {
+		startBackground();
+		Background.submit(saveTask(filepath), new Background.Callback<Void>() {
+			public void done(Void result, Exception error) {
+				endBackground();
+				if (error == null) {
+					if (saved != null) {
+						saved.run();
+					}
+					return;
 				}
-
-				// create new cards, and add them to the loadGrid
-				int thisSuit = new Integer(currentCard.getElementsByTagName(
-						"Suit").item(0).getTextContent());
-				int thisValue = new Integer(currentCard.getElementsByTagName(
-						"Value").item(0).getTextContent());
-				if(thisSuit == 0){
-					loadGrid.add(new CardImage(
-							"cardImages/gray.gif", 0, 14, false));
-				} else {
-					loadGrid.add(new CardImage("cardImages/"
-							+ NUMBERS[thisValue - 1] + SUITS[thisSuit - 1] + ".gif",
-							thisSuit, thisValue, true));
+				error.printStackTrace();
+				JOptionPane.showMessageDialog(window,
+						"There was a problem saving the game."
+						+ " Please select a different save"
+						+ " location and try again.",
+						"Game not saved.",
+						JOptionPane.ERROR_MESSAGE);
+				// if saving fails, reset the filepath to nothing
+				Main.filepath = new File("");
+				if (failed != null) {
+					failed.run();
 				}
-				if(loadGrid.size() == 56){
-					// write changes to the real playGrid only if loading 
-					// happened correctly
-					playGrid = loadGrid;
+			}
+		});
+	}
+	
+	/**
+	 * Loads a game in the background, replacing the current game all at once
+	 * when it has been read. If another game is started or loaded in the
+	 * meantime, the game read is dropped.
+	 * 
+	 * @param filepath is the save file location and filename.
+	 */
+	public static void loadInBackground(final File filepath) {
+		final int ticket = ++gameTicket;
+		startBackground();
+		Background.submit(new Callable<GameFile>() {
+			public GameFile call() throws IOException {
+				return read(filepath);
+			}
+		}, new Background.Callback<GameFile>() {
+			public void done(GameFile game, Exception error) {
+				endBackground();
+				if (ticket != gameTicket) {
+					return;
 				}
-				
-				// get shuffles remaining
-				NodeList shuffles = savedGame.getElementsByTagName("Shuffle");
-				Node shuffleData = shuffles.item(0);
-				Element shuffle = (Element)shuffleData;
-				shufflesRemaining = new Integer(shuffle.getTextContent());
-				loadedShuffles = new Integer(shuffle.getTextContent());
+				if (error != null) {
+					error.printStackTrace();
+					JOptionPane.showMessageDialog(window,
+							"There was a problem loading the game."
+									+ " Please select a different file"
+									+ " and try again.",
+									"Game not loaded.",
+									JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				Main.filepath = filepath;
+				endGame(false);
+				restore(game);
 			}
-
-			// make changes visible and reset the game state
-			redrawInPlace();
-			gameStates.clear();
-			currentState = 0;
-
-			// if we get here before throwing an exception, everything worked
-			return true;
-		} catch(Exception e) {
-			e.printStackTrace();
-			return false;
+		});
+	}
+	
+	/**
+	 * Shows that a file is being read or written.
+	 */
+	private static void startBackground() {
+		if (++backgroundTasks == 1 && window != null) {
+			window.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 		}
 	}
+	
+	/**
+	 * Shows that a file has been read or written, once every one has.
+	 */
+	private static void endBackground() {
+		if (--backgroundTasks == 0 && window != null) {
+			window.setCursor(Cursor.getDefaultCursor());
+		}
+	}
+	
+	/**
+	 * Reports how long the game took to start, once the board has first
+	 * been drawn, if the game was started with -Dcarpet.timing=true.
+	 */
+	public static void reportFirstFrame() {
+		if (startNanos == 0) {
+			return;
+		}
+		System.out.println("First frame " + (System.nanoTime() - startNanos)
+				/ 1000000 + " ms after start; images decoded in "
+				+ ImageCache.getLoadMillis() + " ms"
+				+ (ImageCache.getAtlas() != null ? " from the atlas" : ""));
+	}
+	
+	/**
+	 * Replaces the current game with one that has been read, and makes it
+	 * visible
+	 * 
+	 * @param game is the game read; its journal, if any, becomes the undo
+	 * 		history
+	 */
+	private static void restore(GameFile game) {
+		gameTicket++;
+		// a card being dragged belongs to the game being replaced
+		view.endDrag();
+		if (!game.getShape().equals(board.getShape())) {
+			setShape(game.getShape());
+		}
+		short[] loadCells = new short[game.getShape().getSlots()];
+		game.getCells(loadCells);
+		board.setCells(loadCells);
+		shufflesRemaining = game.getShufflesRemaining();
+		loadedShuffles = game.getStartShuffles();
+		if (game.getJournal() != null) {
+			journal = game.getJournal();
+		} else {
+			journal.reset(board);
+		}
+		loadDealId(game);
+		startAutosave();
+		// the time spent on the game before it was saved is not known
+		gameShuffles = journal.countShuffles();
+		gameMoves = journal.getCurrent() - gameShuffles;
+		gameStart = System.currentTimeMillis();
+		syncGrid();
+		redrawInPlace();
+	}
+	
+	/**
+	 * @param filepath is a save file
+	 * @return true if the file is in the xml format
+	 */
+	public static boolean isXml(File filepath) {
+		return filepath.getName().toLowerCase().endsWith(".xml");
+	}
+	
+	/**
+	 * Asks for a location and filename where a game state file will be
+	 * saved, adding an extension if it has none
+	 * 
+	 * @return the file picked, or null if none was
+	 */
+	private static File chooseSaveFile() {
+		final JFileChooser fc = new JFileChooser();
+		fc.addChoosableFileFilter(XML_FILES);
+		fc.setFileFilter(SAVE_FILES);
+		fc.setApproveButtonText("Save");
+		fc.setDialogTitle("Save As...");
+		int valid = fc.showOpenDialog(window);
+		if(valid != JFileChooser.APPROVE_OPTION) {
+			return null;
+		}
+		File file = fc.getSelectedFile();
+		
+		// make sure the filename has an extension, exporting as xml only if
+		// that filter was picked
+		String name = file.getName().toLowerCase();
+		if(!name.endsWith("." + SAVE_EXTENSION) && !name.endsWith(".xml")){
+			String extension = fc.getFileFilter() == XML_FILES
+					? "xml" : SAVE_EXTENSION;
+		    file = new File(fc.getSelectedFile() + "." + extension);
+		}
+		return file;
+	}
 		
 	//=========================================================================
 	// Main
@@ -423,58 +906,95 @@ public class Main {
 	/**
 	 * Builds and displays the card game window.
 	 * 
-	 * @param args is ignored.
+	 * @param args is optionally the size of the board, as suits x ranks,
+	 * 		such as 8x26 for two decks with 26 cards in each suit. The
+	 * 		standard board is 4x13, or the size of the game picked up
+	 * 		from the last session if no size is given.
 	 */
 	public static void main(String[] args) {
-		
+		if (TIMING) {
+			startNanos = System.nanoTime();
+		}
+		final BoardShape shape = args.length > 0
+				? BoardShape.parse(args[0]) : null;
+		// decode the card images in the background while the window is
+		// built and shown
+		ImageCache.preload();
+		statistics.load();
+		final GameFile lastGame = autosave.recover();
+		autosave.open();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				autosave.close();
+			}
+		});
+
+		// the window is shown at once, with only its background, so that it
+		// appears before the images are ready; this thread waits for them,
+		// and the event thread then fills the window in
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				showWindow(shape != null ? shape : BoardShape.STANDARD);
+			}
+		});
+		ImageCache.awaitPreload();
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				buildWindow(shape, lastGame);
+			}
+		});
+	}
+
+	/**
+	 * Builds and shows the window, with empty menus and no cards. Must be
+	 * called on the event dispatch thread.
+	 *
+	 * @param shape is the size of the board
+	 */
+	private static void showWindow(BoardShape shape) {
+		setShape(shape);
+		window = new JFrame("Cards");
+		JMenuBar menubar = new JMenuBar();
+		menubar.add(new JMenu("File"));
+		menubar.add(new JMenu("Edit"));
+		menubar.add(new JMenu("Help"));
+		window.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
+		window.setLocationByPlatform(true);
+		window.getContentPane().setBackground(paleGreen);
+		window.setJMenuBar(menubar);
+		window.add(view);
+		window.pack();
+		window.setVisible(true);
+		window.setResizable(false);
+	}
+
+	/**
+	 * Deals the cards or picks up the last game, and fills in the menus of
+	 * the window made by showWindow. Must be called on the event dispatch
+	 * thread, once the images are ready.
+	 *
+	 * @param shape is the size of board asked for, or null if none was
+	 * @param lastGame is the game kept from the last session, or null
+	 */
+	private static void buildWindow(BoardShape shape, GameFile lastGame) {
 		//=====================================================================
 		// Card Setup
 		//=====================================================================
 
-		// load images
-		for (int i = 0; i < SUITS.length; i++) {
-			for (int j = 0; j < NUMBERS.length; j++) {
-				Deck.add(new CardImage("cardImages/" + NUMBERS[j] + SUITS[i]
-						+ ".gif", i + 1, j + 1, true));
-			}
-		}
-		
-		// initialize background gray rectangles
-		// setup an ArrayList of 56 gray square images
-		final List<CardImage> grays = new ArrayList<CardImage>();
-		for (int i = 0; i < 56; i++) {
-			grays.add(new CardImage("cardImages/gray.gif", 0, 14, false));
-		}
-		
-		// setup JPanel to hold gray cards (4 by 14 grid of cardImage objects)
-		JPanel grayCards = new JPanel();
-		grayCards.setLayout(new GridLayout(suitsInOneDeck, cardsInOneSuit + 1,
-				CARD_GAP, CARD_GAP));
-		grayCards.setBorder(BorderFactory.createEmptyBorder(BORDER, BORDER,
-				BORDER, BORDER));
-		grayCards.setLocation(0, 0);
-		grayCards.setSize(((CARD_WIDTH + CARD_GAP) * (cardsInOneSuit + 1))
-				+ BORDER + BORDER, ((CARD_HEIGHT + CARD_GAP) * suitsInOneDeck)
-				+ BORDER + BORDER);
-		grayCards.setOpaque(false);
+		loadImages();
 		
-		//add 56 gray cards to JPanel
-		for (int i = 0; i < 56; i++) {
-			grayCards.add(grays.get(i));
+		// pick up the game from the last session, if there is one, or
+		// initialize playing cards; view draws the gray spaces under them,
+		// and handles dragging for every card
+		if (lastGame != null
+				&& (shape == null || shape.equals(lastGame.getShape()))) {
+			restore(lastGame);
+		} else {
+			initCards();
 		}
-		
-		// initialize playing cards
-		playArea.setLayout(new GridLayout(suitsInOneDeck, cardsInOneSuit,
-											CARD_GAP, CARD_GAP));
-		initCards();
-		
-		// ensure that cards are always visible over the gray rectangles
-		JLayeredPane playLayers = new JLayeredPane();
-		playLayers.add(grayCards, new Integer(0));
-		playLayers.add(playArea, new Integer(1));
-		playLayers.setPreferredSize(
-				new Dimension(grayCards.getWidth(), grayCards.getHeight()));
-		playLayers.setOpaque(false);
+		Drag drag = new Drag(view);
+		view.addMouseListener(drag);
+		view.addMouseMotionListener(drag);
 		
 		//initialize statistics
 		gamesPlayed = 1;
@@ -484,17 +1004,12 @@ public class Main {
 		// Menubar Setup
 		//=====================================================================
 		
-		JMenuBar menubar = new JMenuBar();
-		
-		// setup menubar menus
-		JMenu fileMenu = new JMenu("File");
-		menubar.add(fileMenu);
-		JMenu editMenu = new JMenu("Edit");
-		menubar.add(editMenu);
-		JMenu helpMenu = new JMenu("Help");
-		menubar.add(helpMenu);
-		
-		// setup menu actions		
+		// setup menu actions; the menubar and its menus were made with the
+		// window
+		JMenuBar menubar = window.getJMenuBar();
+		JMenu fileMenu = menubar.getMenu(0);
+		JMenu editMenu = menubar.getMenu(1);
+		JMenu helpMenu = menubar.getMenu(2);
 		// file menu
 		/**
 		 * Begins a new game with a newly shuffled deck of cards.
@@ -502,6 +1017,7 @@ public class Main {
 		final ActionListener newGame = new ActionListener(){
 			public void actionPerformed(ActionEvent arg0) {
 				// create new shuffled game
+				endGame(false);
 				initCards();
 				redrawInPlace();
 				loadedShuffles = -1;
@@ -513,16 +1029,48 @@ public class Main {
 				redrawInPlace();
 			}
 		};
+		/**
+		 * Begins a new game with a deal picked by its ID, such as one shown
+		 * in the title of another game.
+		 */
+		final ActionListener playDeal = new ActionListener(){
+			public void actionPerformed(ActionEvent arg0) {
+				String text = JOptionPane.showInputDialog(window,
+						"Enter the number of the deal to play:",
+						"#" + Deal.format(dealId));
+				if (text == null) {
+					return;
+				}
+				long id;
+				try {
+					id = Deal.parse(text);
+				} catch (NumberFormatException e) {
+					JOptionPane.showMessageDialog(window,
+							"A deal number has up to 16 hexadecimal digits.",
+							"Deal not found.", JOptionPane.ERROR_MESSAGE);
+					return;
+				}
+				endGame(false);
+				initCards(id);
+				loadedShuffles = -1;
+				gamesPlayed++;
+				
+				// to prevent saving over existing games when a new game starts
+				filepath = new File("");
+				
+				redrawInPlace();
+			}
+		};
 		/**
 		 * Restarts the current game, keeping the initial card order.
 		 */
 		final ActionListener replay = new ActionListener(){
 			public void actionPerformed(ActionEvent arg0) {
 				// if the game state hasn't changed yet, don't change anything
-				if(gameStates.size() > 0){
-					playGrid = gameStates.get(0);
-					gameStates.clear();
-					currentState = 0;
+				if(journal.getSize() > 0){
+					journal.jumpTo(board, 0);
+					journal.reset(board);
+					syncGrid();
 				}
 
 				// if this is a loaded game, restore the number of shuffles
@@ -532,6 +1080,7 @@ public class Main {
 				} else {
 					shufflesRemaining = 2;
 				}
+				startAutosave();
 				redrawInPlace();
 			}
 		};
@@ -542,91 +1091,22 @@ public class Main {
 			public void actionPerformed(ActionEvent arg0) {
 				//if shuffles are allowed, shuffle
 				if(shufflesRemaining > 0){
-					// for undo/redo system
-					recordMove();
-					shuffleLocations[2 - shufflesRemaining] = currentState;
-					
-					// create an array of 56 booleans, representing playGrid
-					// (entries are true if a card is in a winning position)
-					final boolean[] winCards = new boolean[56];
-					int rowSuit = 0;
-					for(int i = 0; i < winCards.length; i++){
-						// if this is an ace at the start of a row, set it as
-						// the suit to compare against
-						if(getCard(i).getNumber() == 1 &&
-								(i % 14) ==0){
-							rowSuit = getCard(i).getSuit();
-						}
-						
-						// test if this card is in a winning position
-						if (getCard(i).getNumber() - 1 ==
-								i % (cardsInOneSuit + 1) &&
-								getCard(i).getSuit() == rowSuit) {
-							winCards[i] = true;
-						} else {
-							winCards[i] = false;
-						}
-					}
-					
-					// create a collection of non-winning cards
-					// shuffle this collection
-					Stack<CardImage> loserCards = new Stack<CardImage>();
-					for(int i = 0; i < winCards.length; i++){
-						if(!winCards[i]){
-							loserCards.add(playGrid.get(i));
-						}
-					}
-					Collections.shuffle(loserCards);
-					
-					// extract all of the blank cards from loserCards
-					final Stack<CardImage> blankCards = new Stack<CardImage>();
-					int j = 0;
-					while(j < loserCards.size()){
-						if(loserCards.get(j).getSuit() == 0){
-							blankCards.add(loserCards.get(j));
-							loserCards.remove(j);
-						} else {
-							// j must only be incremented if a blank card is
-							// NOT found! Otherwise some blank cards may be
-							// skipped.
-							j++;
-						}
-					}
-					
-					// create a new temporary playing grid
-					// For each spot in the tempGrid, if it's corresponding
-					// winCards entry is true, use the card from the playGrid.
-					// If it's if it's corresponding winCards entry is
-					// false, pull a card from loserCards.
-					// If the spot is the end of a row and it is non-winning,
-					// pull a card from blankCards
-					final List<CardImage> tempGrid = new ArrayList<CardImage>();
-					for(int i = 0; i < 56; i++) {
-						// card already in winning position
-						if(winCards[i]){
-							tempGrid.add(playGrid.get(i));
-						} else {
-							// blank card
-							if((i + 1) % 14 == 0) {
-								tempGrid.add(new CardImage(
-										"cardImages/gray.gif", 0, 14, false));
-							} else {
-								// shuffled loser cards
-								tempGrid.add(loserCards.pop());
-							}
-						}
-					}
+					// only the cards that are not already in winning positions
+					// are shuffled; see BoardState.shuffle
+					short[] before = new short[board.getShape().getSlots()];
+					board.getCells(before);
+					Deal.shuffle(board, dealId, shufflesRemaining);
 					
-					// restore the main playGrid if nothing bad happened
-					if(tempGrid.size() == 56) {
-						playGrid = tempGrid;
-					} else {
-						System.out.println("ERROR: Only " + tempGrid.size() +
-								" cards after shuffling.");
-					}
+					// for undo/redo system
+					journal.recordShuffle(before, board);
+					gameShuffles++;
+					autosave.shuffle(
+							journal.getPermutation(journal.getCurrent() - 1));
+					shufflesRemaining--;
+					syncGrid();
 					redrawInPlace();
 					
-					shufflesRemaining--;
+					checkMoves();
 				} else {
 					// inform the user if they have run out of shuffles
 					final String[] options =
@@ -656,25 +1136,14 @@ public class Main {
 		final ActionListener open = new ActionListener(){
 			public void actionPerformed(ActionEvent arg0) {
 				// pick a file
-				final FileNameExtensionFilter xml =
-						new FileNameExtensionFilter("xml files", "xml");
 				final JFileChooser fc = new JFileChooser();
-				fc.setFileFilter(xml);
+				fc.addChoosableFileFilter(XML_FILES);
+				fc.setFileFilter(SAVE_FILES);
 				int valid = fc.showOpenDialog(window);
 				if(valid == JFileChooser.APPROVE_OPTION) {
-					filepath = fc.getSelectedFile();
-
-					// if load returns false, something bad happened
-					if(!load(filepath)){
-						JOptionPane.showMessageDialog(window,
-								"There was a problem loading the game."
-										+ " Please select a different file"
-										+ " and try again.",
-										"Game not loaded.",
-										JOptionPane.ERROR_MESSAGE);
-						// if loading fails, reset the filepath to nothing
-						filepath = new File("");
-					}
+					// the game is replaced once the file has been read, and
+					// the player is told if it could not be
+					loadInBackground(fc.getSelectedFile());
 				}
 			}
 		};
@@ -686,36 +1155,13 @@ public class Main {
 		 */
 		final ActionListener saveAs = new ActionListener(){
 			public void actionPerformed(ActionEvent arg0) {
-				// pick a file
-				final FileNameExtensionFilter xml =
-						new FileNameExtensionFilter("xml files", "xml");
-				final JFileChooser fc = new JFileChooser();
-				fc.setFileFilter(xml);
-				fc.setApproveButtonText("Save");
-				fc.setDialogTitle("Save As...");
-				int valid = fc.showOpenDialog(window);
-				if(valid == JFileChooser.APPROVE_OPTION) {
-					filepath = fc.getSelectedFile();
-					
-					// make sure the filename ends in .xml
-					if(!fc.getSelectedFile().getAbsolutePath().endsWith(".xml")){
-					    filepath = new File(fc.getSelectedFile() + ".xml");
-					}
-					
-					// if save returns false, something bad happened
-					if(!save(filepath)){
-						JOptionPane.showMessageDialog(
-										window,
-										"There was a problem saving the game."
-										+ " Please select a different save"
-										+ " location and try again.",
-										"Game not saved.",
-										JOptionPane.ERROR_MESSAGE);
-						// if loading saveing, reset the filepath to nothing
-						filepath = new File("");
-					}
-				}
+				File file = chooseSaveFile();
 				// if the cancel button was pressed, do nothing
+				if(file != null) {
+					filepath = file;
+					// the player is told if the game could not be saved
+					saveInBackground(filepath, null, null);
+				}
 			}
 		};
 		/**
@@ -723,22 +1169,18 @@ public class Main {
 		 * saveAs is called.
 		 */
 		final ActionListener save = new ActionListener(){
-			public void actionPerformed(ActionEvent arg0) {
-				if(!filepath.exists()){
-					saveAs.actionPerformed(arg0);
-				// if save returns false, something bad happened
-				} else if(!save(filepath)){
-					JOptionPane.showMessageDialog(
-							window,
-							"There was a problem saving the game."
-									+ " Please select a different save"
-									+ " location and try again.",
-									"Game not saved.",
-									JOptionPane.ERROR_MESSAGE);
-					// if loading fails, reset the filepath to nothing
-					// and prompt to save to a new location
-					filepath = new File("");
+			public void actionPerformed(final ActionEvent arg0) {
+				// only the path is checked, since looking for the file
+				// itself could wait on a slow disk
+				if(filepath.getPath().length() == 0){
 					saveAs.actionPerformed(arg0);
+				} else {
+					// if saving fails, prompt to save to a new location
+					saveInBackground(filepath, null, new Runnable() {
+						public void run() {
+							saveAs.actionPerformed(arg0);
+						}
+					});
 				}
 			}
 		};
@@ -761,8 +1203,20 @@ public class Main {
 						options, // button text
 						options[0]); // default option
 				if(response == 0){ // check for "Save" button
-					save.actionPerformed(arg0);
-					System.exit(0);
+					if(filepath.getPath().length() == 0){
+						File file = chooseSaveFile();
+						if(file == null){
+							return;
+						}
+						filepath = file;
+					}
+					// quit once the game is saved; if it could not be, the
+					// player is told and the game stays open
+					saveInBackground(filepath, new Runnable() {
+						public void run() {
+							System.exit(0);
+						}
+					}, null);
 				} else if(response == 1){ // check for "Close Without Saving"
 					System.exit(0);
 				}
@@ -775,23 +1229,20 @@ public class Main {
 		 */
 		final ActionListener undo = new ActionListener(){
 			public void actionPerformed(ActionEvent arg0) {
-				// if this is undoing a shuffle, add one to shufflesRemaining
-				if(currentState == shuffleLocations[0] ||
-						currentState == shuffleLocations[1]){
-					shufflesRemaining++;
+				// a swap only changes two cards; if this is undoing a
+				// shuffle, add one to shufflesRemaining
+				int kind = journal.undo(board);
+				if(kind >= 0){
+					autosave.undo();
 				}
-				
-				// if this is the first undo, and if at least one move has been
-				// made, record the state in case we need to redo later
-				if(gameStates.size() == currentState && currentState > 0){
-					gameStates.add(new ArrayList<CardImage>(playGrid));
-				}
-				if(currentState > 0){
-					currentState--;
-					playGrid = gameStates.get(currentState);
+				if(kind == MoveJournal.SWAP){
+					int entry = journal.getCurrent();
+					showSwap(journal.getSwapA(entry), journal.getSwapB(entry));
+				} else if(kind == MoveJournal.SHUFFLE){
+					shufflesRemaining++;
+					syncGrid();
+					redrawInPlace();
 				}
-				
-				redrawInPlace();
 			}
 		};
 		/**
@@ -801,15 +1252,46 @@ public class Main {
 			public void actionPerformed(ActionEvent arg0) {
 				// if this is redoing a shuffle, subtract one
 				// from shufflesRemaining
-				if(currentState == shuffleLocations[0] ||
-						currentState == shuffleLocations[1]){
+				int kind = journal.redo(board);
+				if(kind >= 0){
+					autosave.redo();
+				}
+				if(kind == MoveJournal.SWAP){
+					int entry = journal.getCurrent() - 1;
+					showSwap(journal.getSwapA(entry), journal.getSwapB(entry));
+				} else if(kind == MoveJournal.SHUFFLE){
 					shufflesRemaining--;
+					syncGrid();
+					redrawInPlace();
 				}
-				if(gameStates.size() > currentState + 1){
-					currentState++;
-					playGrid = gameStates.get(currentState);
+				// redoing can reach a position with no moves, just as
+				// making the move did
+				if(kind >= 0){
+					checkMoves();
+				}
+			}
+		};
+		/**
+		 * Outlines the card to move next and the space to move it to.
+		 */
+		final ActionListener hint = new ActionListener(){
+			public void actionPerformed(ActionEvent arg0) {
+				showHint();
+			}
+		};
+		/**
+		 * Tells the player whether shuffling now is likely to do better than
+		 * playing on.
+		 */
+		final ActionListener advice = new ActionListener(){
+			public void actionPerformed(ActionEvent arg0) {
+				if(shufflesRemaining > 0){
+					adviseShuffle();
+				} else {
+					JOptionPane.showMessageDialog(window,
+							"You have no shuffles remaining.",
+							"Shuffle Advice", JOptionPane.INFORMATION_MESSAGE);
 				}
-				redrawInPlace();
 			}
 		};
 		/**
@@ -822,12 +1304,7 @@ public class Main {
 				final String[] buttonOptions = {"Close",
 						"Reset Statistics Now"};
 				while(JOptionPane.showOptionDialog(window, // root pane
-						"Statistics for this session:\n\n" // text
-						+ "Games Played: " + gamesPlayed + "\n"
-						+ "Games Won: " + gamesWon + "\n"
-						+ "Percent Won: "
-						+ (((float)gamesWon) / (gamesPlayed) * 100) + "%\n\n"
-						+ "Statistics will be reset when you quit the game.",
+						getStatisticsText(), // text
 						"Statistics", // window title
 						JOptionPane.DEFAULT_OPTION, // option dialog type
 						JOptionPane.PLAIN_MESSAGE, // icon type
@@ -848,7 +1325,8 @@ public class Main {
 		final ActionListener rules = new ActionListener(){
 			public void actionPerformed(ActionEvent arg0) {
 				JOptionPane.showMessageDialog(window,
-			"The game is won when all 13 cards of each suit are in order"
+			"The game is won when all " + board.getShape().getRanks()
+			+ " cards of each suit are in order"
 			+ "\nfrom left to right, with the blank space on the far right."
 			+ "\nThe vertical order of the suits does not matter."
 			+ "\nCards can only be moved onto blank spaces,"
@@ -862,7 +1340,9 @@ public class Main {
 			+ "\n\nIf no more legal moves are possible, the cards that are not"
 			+ "\nyet in their correct positions can be shuffled by selecting"
 			+ "\nShuffle from the File menu."
-			+ "\nOnly two shuffles are allowed per game.",
+			+ "\nOnly two shuffles are allowed per game."
+			+ "\nShuffle Advice in the Edit menu tells you whether shuffling"
+			+ "\nnow is likely to do better than playing on.",
 			"Rules", JOptionPane.PLAIN_MESSAGE);
 			}
 		};
@@ -882,18 +1362,20 @@ public class Main {
 		
 		// setup menu items and keyboard shortcuts
 		// file menu items
-		JMenuItem newGameItem = new JMenuItem("New Game");
+		// newGameItem, replayItem and shuffleItem are already declared
 		newGameItem.addActionListener(newGame);
 		newGameItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_N,
 				ActionEvent.CTRL_MASK));
-		JMenuItem replayItem = new JMenuItem("Replay");
 		replayItem.addActionListener(replay);
 		replayItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_R,
 				ActionEvent.CTRL_MASK));
-		JMenuItem shuffleItem = new JMenuItem("Shuffle");
 		shuffleItem.addActionListener(shuffle);
 		shuffleItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_E,
 				ActionEvent.CTRL_MASK));
+		JMenuItem playDealItem = new JMenuItem("Play Deal #...");
+		playDealItem.addActionListener(playDeal);
+		playDealItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D,
+				ActionEvent.CTRL_MASK));
 		JMenuItem openItem = new JMenuItem("Open...");
 		openItem.addActionListener(open);
 		openItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O,
@@ -920,6 +1402,14 @@ public class Main {
 		redoItem.addActionListener(redo);
 		redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y,
 				ActionEvent.CTRL_MASK));
+		JMenuItem hintItem = new JMenuItem("Hint");
+		hintItem.addActionListener(hint);
+		hintItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G,
+				ActionEvent.CTRL_MASK));
+		JMenuItem adviceItem = new JMenuItem("Shuffle Advice");
+		adviceItem.addActionListener(advice);
+		adviceItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_K,
+				ActionEvent.CTRL_MASK));
 		JMenuItem statsItem = new JMenuItem("Statistics...");
 		statsItem.addActionListener(stats);
 		statsItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_T,
@@ -937,6 +1427,7 @@ public class Main {
 		
 		// add menu items to menus
 		fileMenu.add(newGameItem);
+		fileMenu.add(playDealItem);
 		fileMenu.add(replayItem);
 		fileMenu.add(shuffleItem);
 		fileMenu.add(openItem);
@@ -946,31 +1437,35 @@ public class Main {
 		
 		editMenu.add(undoItem);
 		editMenu.add(redoItem);
+		editMenu.add(hintItem);
+		editMenu.add(adviceItem);
 		editMenu.add(statsItem);
 		
 		helpMenu.add(rulesItem);
 		helpMenu.add(aboutItem);
 		
+		// the chance of winning, kept up to date in the background, on the
+		// far right of the menu bar
+		menubar.add(Box.createHorizontalGlue());
+		menubar.add(estimateLabel);
+		winEstimator = new WinEstimator(
+				new Background.Callback<WinEstimator.Estimate>() {
+					public void done(WinEstimator.Estimate estimate,
+							Exception error) {
+						if (error != null) {
+							error.printStackTrace();
+							estimateLabel.setText("");
+						} else {
+							showEstimate(estimate);
+						}
+					}
+				});
+		
 		//=====================================================================
 		// Window Setup
 		//=====================================================================
 		
 		redrawInPlace();
-		
-		playArea.setBorder(BorderFactory.createEmptyBorder(BORDER, BORDER,
-				BORDER, BORDER));
-		playArea.setLocation(0, 0);
-		playArea.setSize(((CARD_WIDTH + CARD_GAP) * (cardsInOneSuit + 1))
-				+ BORDER + BORDER, ((CARD_HEIGHT + CARD_GAP) * suitsInOneDeck)
-				+ BORDER + BORDER);
-		playArea.setOpaque(false);
-		window.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-		window.setLocationByPlatform(true);
-		window.getContentPane().setBackground(paleGreen);
-		window.setJMenuBar(menubar);
-		window.add(playLayers);
-		window.pack();
-		window.setVisible(true);
-		window.setResizable(false);
+		view.showBoard();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package game;
+
+/**
+ * Finds the legal moves of a position.
+ *
+ * A card may only move into a blank space, and only one card can fill each
+ * blank space: the card one higher than the card to its left, or any ace
+ * if the space is at the start of a row. With the reverse index kept by
+ * BoardState, that card is found without searching, so all the moves of a
+ * position are found by looking at the blank spaces, one for each suit,
+ * and nothing else, however long the rows are.
+ *
+ * Moves are packed into an int as (from &lt;&lt; 12) | to, to be read with
+ * Solver.moveFrom and Solver.moveTo. Sets of slots are written into a
+ * buffer, so that they are not limited to boards of 64 slots.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class MoveGenerator {
+	/**
+	 * Not used; every method is static.
+	 */
+	private MoveGenerator() {
+	}
+
+	/**
+	 * @param shape is the size of a board
+	 * @return the most legal moves a position can have: every ace for each
+	 *         blank space at the start of a row
+	 */
+	public static int maxMoves(BoardShape shape) {
+		return shape.getSuits() * shape.getSuits();
+	}
+
+	/**
+	 * @param from is the position of the card being moved
+	 * @param to is the position of the blank space it moves to
+	 * @return the move, packed into an int
+	 */
+	public static int move(int from, int to) {
+		return (from << 12) | to;
+	}
+
+	/**
+	 * Fills buffer with every legal move from a position, without
+	 * allocating.
+	 *
+	 * @param board is the position
+	 * @param buffer has room for at least maxMoves moves
+	 * @return the number of moves
+	 */
+	public static int generate(BoardState board, int[] buffer) {
+		BoardShape shape = board.getShape();
+		int suits = shape.getSuits();
+		int columns = shape.getColumns();
+		int count = 0;
+		for (int i = 0; i < suits; i++) {
+			int gap = board.gapSlot(i);
+			if (gap % columns == 0) {
+				// any ace can start a row
+				for (int suit = 1; suit <= suits; suit++) {
+					buffer[count++] = move(board.slotOf(suit, 1), gap);
+				}
+			} else {
+				// only the successor of the card to the left can follow it
+				int left = board.get(gap - 1);
+				if (left != BoardState.GAP
+						&& shape.numberOf(left) != shape.getRanks()) {
+					buffer[count++] = move(board.slotOfCode(left + 1), gap);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Fills buffer with the blank spaces a card may legally move to.
+	 *
+	 * @param board is the position
+	 * @param from is the position of a card
+	 * @param buffer has room for at least one slot for each suit
+	 * @return the number of blank spaces, 0 if from is itself a blank space
+	 */
+	public static int targets(BoardState board, int from, int[] buffer) {
+		BoardShape shape = board.getShape();
+		int columns = shape.getColumns();
+		int card = board.get(from);
+		if (card == BoardState.GAP) {
+			return 0;
+		}
+		if (shape.numberOf(card) == 1) {
+			// an ace may go to any blank space at the start of a row
+			int count = 0;
+			for (int i = 0; i < shape.getSuits(); i++) {
+				int gap = board.gapSlot(i);
+				if (gap % columns == 0) {
+					buffer[count++] = gap;
+				}
+			}
+			return count;
+		}
+		// any other card may only go to the right of the card one lower
+		int to = board.slotOfCode(card - 1) + 1;
+		if (to % columns != 0 && board.isGap(to)) {
+			buffer[0] = to;
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Fills buffer with the cards that have at least one legal move, each
+	 * listed once.
+	 *
+	 * @param board is the position
+	 * @param buffer has room for at least two slots for each suit
+	 * @return the number of cards
+	 */
+	public static int movable(BoardState board, int[] buffer) {
+		BoardShape shape = board.getShape();
+		int suits = shape.getSuits();
+		int columns = shape.getColumns();
+		int count = 0;
+		boolean aces = false;
+		for (int i = 0; i < suits; i++) {
+			int gap = board.gapSlot(i);
+			if (gap % columns == 0) {
+				aces = true;
+			} else {
+				int left = board.get(gap - 1);
+				if (left != BoardState.GAP
+						&& shape.numberOf(left) != shape.getRanks()) {
+					buffer[count++] = board.slotOfCode(left + 1);
+				}
+			}
+		}
+		if (aces) {
+			// an ace is never the successor of another card
+			for (int suit = 1; suit <= suits; suit++) {
+				buffer[count++] = board.slotOf(suit, 1);
+			}
+		}
+		return count;
+	}
+}
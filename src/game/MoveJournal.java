@@ -0,0 +1,386 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records every change made to a board, so that it can be undone and
+ * redone.
+ *
+ * A swap is stored as a single int holding its two positions, and a
+ * shuffle as a permutation of every position of the board. A copy of the
+ * whole board is also kept every KEYFRAME_INTERVAL entries, so that
+ * jumping to any point in the game only replays a few entries. Undoing
+ * or redoing a swap takes constant time and never allocates.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class MoveJournal {
+	/**
+	 * The kind of entry made by recordSwap.
+	 */
+	public static final int SWAP = 0;
+	/**
+	 * The kind of entry made by recordShuffle.
+	 */
+	public static final int SHUFFLE = 1;
+	/**
+	 * The number of entries between copies of the whole board.
+	 */
+	public static final int KEYFRAME_INTERVAL = 64;
+
+	// entries: a swap is (a << 12) | b, a shuffle is -1 - its index in
+	// permutations
+	private int[] entries = new int[KEYFRAME_INTERVAL];
+	private final List<short[]> permutations = new ArrayList<short[]>();
+	// keyframes.get(k) is the board before entry k * KEYFRAME_INTERVAL
+	private final List<short[]> keyframes = new ArrayList<short[]>();
+	private int size;
+	private int current;
+	private BoardShape shape = BoardShape.STANDARD;
+
+	// scratch space for building permutations and replaying keyframes,
+	// sized for the board by reset
+	private short[] cells = new short[0];
+	private int[] from = new int[0];
+
+	/**
+	 * Constructs a journal with no entries; reset must be called before
+	 * anything is recorded.
+	 */
+	public MoveJournal() {
+	}
+
+	/**
+	 * Constructs a copy of another journal, which can be read on another
+	 * thread while the original goes on changing. Permutations and keyframes
+	 * are never changed once made, so they are shared.
+	 *
+	 * @param other is the journal to copy
+	 */
+	public MoveJournal(MoveJournal other) {
+		entries = Arrays.copyOf(other.entries, other.entries.length);
+		permutations.addAll(other.permutations);
+		keyframes.addAll(other.keyframes);
+		size = other.size;
+		current = other.current;
+		shape = other.shape;
+		cells = new short[other.cells.length];
+		from = new int[other.from.length];
+	}
+
+	/**
+	 * Starts an empty journal for a new or loaded game.
+	 *
+	 * @param board is the position the game starts from
+	 */
+	public void reset(BoardState board) {
+		size = 0;
+		current = 0;
+		permutations.clear();
+		keyframes.clear();
+		shape = board.getShape();
+		if (cells.length != shape.getSlots()) {
+			cells = new short[shape.getSlots()];
+			from = new int[shape.getCodes()];
+		}
+		short[] start = new short[shape.getSlots()];
+		board.getCells(start);
+		keyframes.add(start);
+	}
+
+	/**
+	 * @return the size of the board the journal was last reset with
+	 */
+	public BoardShape getShape() {
+		return shape;
+	}
+
+	/**
+	 * @return the number of entries that can currently be undone
+	 */
+	public int getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return the number of entries, including any that have been undone
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return true if there is an entry to undo
+	 */
+	public boolean canUndo() {
+		return current > 0;
+	}
+
+	/**
+	 * @return true if there is an undone entry to redo
+	 */
+	public boolean canRedo() {
+		return current < size;
+	}
+
+	/**
+	 * @param i is the index of an entry
+	 * @return SWAP or SHUFFLE
+	 */
+	public int getKind(int i) {
+		return entries[i] < 0 ? SHUFFLE : SWAP;
+	}
+
+	/**
+	 * @param i is the index of a SWAP entry
+	 * @return the first position that was swapped
+	 */
+	public int getSwapA(int i) {
+		return entries[i] >> 12;
+	}
+
+	/**
+	 * @param i is the index of a SWAP entry
+	 * @return the second position that was swapped
+	 */
+	public int getSwapB(int i) {
+		return entries[i] & 0xFFF;
+	}
+
+	/**
+	 * @param i is the index of a SHUFFLE entry
+	 * @return the permutation of that shuffle: position p after the shuffle
+	 *         holds what position permutation[p] held before it. The array
+	 *         must not be changed.
+	 */
+	public short[] getPermutation(int i) {
+		return permutations.get(-1 - entries[i]);
+	}
+
+	/**
+	 * @param dest is an array with room for every slot, which is filled with
+	 *  the cells of the board as it was when reset was last called
+	 */
+	public void getStartCells(short[] dest) {
+		System.arraycopy(keyframes.get(0), 0, dest, 0, shape.getSlots());
+	}
+
+	/**
+	 * @return the number of SHUFFLE entries that can currently be undone
+	 */
+	public int countShuffles() {
+		return permutationsBefore(current);
+	}
+
+	/**
+	 * @return the number of SHUFFLE entries, including any that have been
+	 *         undone
+	 */
+	public int countAllShuffles() {
+		return permutationsBefore(size);
+	}
+
+	//=========================================================================
+	// Recording
+	//=========================================================================
+
+	/**
+	 * Records a swap that has just been made, discarding anything that had
+	 * been undone.
+	 *
+	 * @param a is the first position swapped
+	 * @param b is the second position swapped
+	 */
+	public void recordSwap(int a, int b) {
+		truncate();
+		append((a << 12) | b);
+	}
+
+	/**
+	 * Records a shuffle that has just been made, discarding anything that had
+	 * been undone.
+	 *
+	 * @param before holds the cells of the board before the shuffle
+	 * @param after is the board after the shuffle
+	 */
+	public void recordShuffle(short[] before, BoardState after) {
+		truncate();
+
+		// note where each card was before; blank spaces are interchangeable,
+		// so each is matched with the next unused one
+		int blank = 0;
+		int slots = shape.getSlots();
+		for (int i = 0; i < slots; i++) {
+			if (before[i] != BoardState.GAP) {
+				from[before[i]] = i;
+			}
+		}
+		short[] permutation = new short[slots];
+		for (int i = 0; i < slots; i++) {
+			int card = after.get(i);
+			if (card == BoardState.GAP) {
+				while (before[blank] != BoardState.GAP) {
+					blank++;
+				}
+				permutation[i] = (short)blank++;
+			} else {
+				permutation[i] = (short)from[card];
+			}
+		}
+		permutations.add(permutation);
+		append(-permutations.size());
+	}
+
+	//=========================================================================
+	// Undo and redo
+	//=========================================================================
+
+	/**
+	 * Undoes the last entry that has not been undone.
+	 *
+	 * @param board is the board the entries were recorded from
+	 * @return the kind of entry undone, or -1 if there was none
+	 */
+	public int undo(BoardState board) {
+		if (current == 0) {
+			return -1;
+		}
+		current--;
+		int entry = entries[current];
+		if (entry >= 0) {
+			board.swap(entry >> 12, entry & 0xFFF);
+			return SWAP;
+		}
+		short[] permutation = permutations.get(-1 - entry);
+		for (int i = 0; i < permutation.length; i++) {
+			cells[permutation[i]] = (short)board.get(i);
+		}
+		board.setCells(cells);
+		return SHUFFLE;
+	}
+
+	/**
+	 * Redoes the last entry that was undone.
+	 *
+	 * @param board is the board the entries were recorded from
+	 * @return the kind of entry redone, or -1 if there was none
+	 */
+	public int redo(BoardState board) {
+		if (current == size) {
+			return -1;
+		}
+		apply(board, entries[current]);
+		current++;
+		return entries[current - 1] < 0 ? SHUFFLE : SWAP;
+	}
+
+	/**
+	 * Sets the board to how it was after a number of entries, starting from
+	 * the nearest copy of the whole board. Entries after that point can
+	 * still be redone.
+	 *
+	 * @param board is the board the entries were recorded from
+	 * @param index is the number of entries to keep, 0 for the start
+	 */
+	public void jumpTo(BoardState board, int index) {
+		int keyframe = index / KEYFRAME_INTERVAL;
+		board.setCells(keyframes.get(keyframe));
+		for (int i = keyframe * KEYFRAME_INTERVAL; i < index; i++) {
+			apply(board, entries[i]);
+		}
+		current = index;
+	}
+
+	//=========================================================================
+	// Helpers
+	//=========================================================================
+
+	/**
+	 * Makes the change of a single entry to the board.
+	 */
+	private void apply(BoardState board, int entry) {
+		if (entry >= 0) {
+			board.swap(entry >> 12, entry & 0xFFF);
+			return;
+		}
+		short[] permutation = permutations.get(-1 - entry);
+		for (int i = 0; i < permutation.length; i++) {
+			cells[i] = (short)board.get(permutation[i]);
+		}
+		board.setCells(cells);
+	}
+
+	/**
+	 * @return the number of SHUFFLE entries before entry index
+	 */
+	private int permutationsBefore(int index) {
+		int count = 0;
+		for (int i = 0; i < index; i++) {
+			if (entries[i] < 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Discards every entry that has been undone, along with any shuffle
+	 * permutations and keyframes that belong to them.
+	 */
+	private void truncate() {
+		while (size > current) {
+			size--;
+			if (entries[size] < 0) {
+				permutations.remove(permutations.size() - 1);
+			}
+		}
+		while (keyframes.size() > current / KEYFRAME_INTERVAL + 1) {
+			keyframes.remove(keyframes.size() - 1);
+		}
+	}
+
+	/**
+	 * Adds an entry after the current one, which must be the last, and
+	 * takes a keyframe when one is due.
+	 */
+	private void append(int entry) {
+		if (size == entries.length) {
+			entries = Arrays.copyOf(entries, size * 2);
+		}
+		entries[size++] = entry;
+		current = size;
+		if (size % KEYFRAME_INTERVAL == 0) {
+			// this entry has already been made to the board, so rebuild the
+			// board as it is now from the previous keyframe
+			short[] frame = Arrays.copyOf(keyframes.get(keyframes.size() - 1),
+					shape.getSlots());
+			replay(frame, size - KEYFRAME_INTERVAL, size);
+			keyframes.add(frame);
+		}
+	}
+
+	/**
+	 * Applies a range of entries to an array of cells.
+	 */
+	private void replay(short[] frame, int first, int last) {
+		for (int i = first; i < last; i++) {
+			int entry = entries[i];
+			if (entry >= 0) {
+				int a = entry >> 12;
+				int b = entry & 0xFFF;
+				short tmp = frame[a];
+				frame[a] = frame[b];
+				frame[b] = tmp;
+			} else {
+				short[] permutation = permutations.get(-1 - entry);
+				for (int j = 0; j < permutation.length; j++) {
+					cells[j] = frame[permutation[j]];
+				}
+				System.arraycopy(cells, 0, frame, 0, permutation.length);
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Weighs shuffling now against playing on, by playing the position out
+ * many times each way within a time budget.
+ *
+ * The player cannot know how a shuffle will fall, so the outcomes of the
+ * shuffle are sampled from fresh random streams, never from the deal ID.
+ * Each sample plays the position out twice with a strategy, greedy unless
+ * another is given: once after a sampled shuffle, and once without it,
+ * shuffling later only when the strategy gives up. Both play-outs of a
+ * sample draw from the same random stream, so that luck cancels out of
+ * the comparison. A play-out is scored by the number of cards in the
+ * ordered runs at its end, all of them for a win, which separates the two
+ * choices long before either wins often.
+ *
+ * Samples are played on a pool with a thread for each core, until the
+ * budget runs out or the plan is cancelled, and a plan always returns what
+ * it has found by then. A play-out takes a few tens of microseconds, so a
+ * budget of 100 milliseconds gives about a thousand samples even on one
+ * core.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class ShufflePlanner {
+	/**
+	 * The most moves a play-out may take, as in Simulator.
+	 */
+	public static final int MAX_MOVES = Simulator.MAX_MOVES;
+
+	// fields
+	private final Strategy strategy;
+	private final int threads;
+	private final ExecutorService pool;
+	// changed by every plan and every cancel, so workers can tell that the
+	// plan they belong to is over
+	private final AtomicInteger generation = new AtomicInteger();
+	// picks the random streams of each plan
+	private final AtomicInteger plans = new AtomicInteger();
+
+	/**
+	 * The totals of a plan, and the choice they favor.
+	 */
+	public static final class Plan {
+		private final int cards;
+		private long samples;
+		private long keepWins;
+		private long shuffleWins;
+		private long keepLocked;
+		private long shuffleLocked;
+		private long nanos;
+
+		private Plan(int cards) {
+			this.cards = cards;
+		}
+
+		/**
+		 * Adds the totals of another worker to this plan.
+		 */
+		private void merge(Plan other) {
+			samples += other.samples;
+			keepWins += other.keepWins;
+			shuffleWins += other.shuffleWins;
+			keepLocked += other.keepLocked;
+			shuffleLocked += other.shuffleLocked;
+		}
+
+		/**
+		 * @return true if shuffling now did no worse than playing on. A tie
+		 *         usually means the strategy would shuffle at once anyway.
+		 */
+		public boolean shouldShuffle() {
+			return samples > 0 && (shuffleLocked > keepLocked
+					|| (shuffleLocked == keepLocked
+					&& shuffleWins >= keepWins));
+		}
+
+		/**
+		 * @return the number of samples, each played out both ways
+		 */
+		public long getSamples() {
+			return samples;
+		}
+
+		/**
+		 * @return the fraction of play-outs won without shuffling now, 0-1
+		 */
+		public double getKeepWinRate() {
+			return samples == 0 ? 0 : (double)keepWins / samples;
+		}
+
+		/**
+		 * @return the fraction of play-outs won after shuffling now, 0-1
+		 */
+		public double getShuffleWinRate() {
+			return samples == 0 ? 0 : (double)shuffleWins / samples;
+		}
+
+		/**
+		 * @return the average number of cards in order at the end of a
+		 *         play-out without shuffling now
+		 */
+		public double getKeepCards() {
+			return samples == 0 ? 0 : (double)keepLocked / samples;
+		}
+
+		/**
+		 * @return the average number of cards in order at the end of a
+		 *         play-out after shuffling now
+		 */
+		public double getShuffleCards() {
+			return samples == 0 ? 0 : (double)shuffleLocked / samples;
+		}
+
+		/**
+		 * @return the number of cards on the board, which a won play-out has
+		 *         in order
+		 */
+		public int getCards() {
+			return cards;
+		}
+
+		/**
+		 * @return the time the plan took, in milliseconds
+		 */
+		public long getMillis() {
+			return nanos / 1000000;
+		}
+	}
+
+	/**
+	 * Constructs a planner that plays greedily, on a thread for each core.
+	 */
+	public ShufflePlanner() {
+		this(Strategy.forName("greedy"),
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param strategy picks the moves of each play-out; it is copied, never
+	 *  used directly
+	 * @param threads is the number of threads to play on
+	 */
+	public ShufflePlanner(Strategy strategy, int threads) {
+		this.strategy = strategy;
+		this.threads = Math.max(1, threads);
+		pool = Executors.newFixedThreadPool(this.threads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Planner");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Plays a position out both ways until the budget runs out or cancel is
+	 * called. Only one plan may run at a time.
+	 *
+	 * @param board is the position to plan from; it is not changed
+	 * @param shuffles is the number of shuffles remaining, at least 1
+	 * @param millis is the time budget, in milliseconds
+	 * @return the totals, which are empty if the plan was cancelled before
+	 *         a single sample was played
+	 * @throws IllegalArgumentException if no shuffles remain
+	 * @throws InterruptedException if the calling thread is interrupted,
+	 *  which also stops the workers
+	 */
+	public Plan plan(BoardState board, int shuffles, long millis)
+			throws InterruptedException {
+		if (shuffles < 1) {
+			throw new IllegalArgumentException("No shuffles remain.");
+		}
+		long start = System.nanoTime();
+		long deadline = start + millis * 1000000L;
+		int id = generation.incrementAndGet();
+		long seed = SplitMix.streamSeed(board.getHash(),
+				plans.incrementAndGet());
+		List<Callable<Plan>> workers = new ArrayList<Callable<Plan>>();
+		for (int i = 0; i < threads; i++) {
+			workers.add(new Worker(new BoardState(board), shuffles, id,
+					deadline, SplitMix.streamSeed(seed, i)));
+		}
+		Plan plan = new Plan(board.getShape().getSuits()
+				* board.getShape().getRanks());
+		try {
+			for (Future<Plan> future : pool.invokeAll(workers)) {
+				plan.merge(future.get());
+			}
+		} catch (InterruptedException e) {
+			// the workers only look at the generation
+			cancel();
+			throw e;
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		plan.nanos = System.nanoTime() - start;
+		return plan;
+	}
+
+	/**
+	 * Stops the plan in progress, if there is one, which then returns what
+	 * it has found so far. May be called from any thread.
+	 */
+	public void cancel() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Plays samples on one thread until its plan is over.
+	 */
+	private class Worker implements Callable<Plan> {
+		private final BoardState start;
+		private final int shuffles;
+		private final int id;
+		private final long deadline;
+		private final long seed;
+
+		Worker(BoardState start, int shuffles, int id, long deadline,
+				long seed) {
+			this.start = start;
+			this.shuffles = shuffles;
+			this.id = id;
+			this.deadline = deadline;
+			this.seed = seed;
+		}
+
+		public Plan call() {
+			BoardShape shape = start.getShape();
+			Plan totals = new Plan(shape.getSuits() * shape.getRanks());
+			BoardState board = new BoardState(shape);
+			Strategy player = strategy.newInstance();
+			int[] moves = new int[MoveGenerator.maxMoves(shape)];
+			SplitMix rnd = new SplitMix(0);
+			for (long sample = 0; generation.get() == id
+					&& System.nanoTime() < deadline; sample++) {
+				long sampleSeed = SplitMix.streamSeed(seed, sample);
+
+				board.copyFrom(start);
+				rnd.setSeed(sampleSeed);
+				playOut(board, shuffles, player, moves, rnd);
+				totals.keepLocked += board.countLocked();
+				totals.keepWins += board.isWon() ? 1 : 0;
+
+				board.copyFrom(start);
+				rnd.setSeed(sampleSeed);
+				board.shuffle(rnd);
+				playOut(board, shuffles - 1, player, moves, rnd);
+				totals.shuffleLocked += board.countLocked();
+				totals.shuffleWins += board.isWon() ? 1 : 0;
+
+				totals.samples++;
+			}
+			return totals;
+		}
+	}
+
+	/**
+	 * Plays a position out with a strategy, as Simulator does, except that
+	 * shuffles are drawn from rnd.
+	 */
+	static void playOut(BoardState board, int shuffles,
+			Strategy player, int[] moves, SplitMix rnd) {
+		int moveCount = 0;
+		player.reset(board, shuffles);
+		while (moveCount < MAX_MOVES && !board.isWon()) {
+			int count = MoveGenerator.generate(board, moves);
+			int choice = count == 0 ? -1
+					: player.choose(board, moves, count, rnd);
+			if (choice >= 0) {
+				board.swap(Solver.moveFrom(moves[choice]),
+						Solver.moveTo(moves[choice]));
+				moveCount++;
+			} else if (shuffles > 0) {
+				board.shuffle(rnd);
+				shuffles--;
+				player.reset(board, shuffles);
+			} else {
+				break;
+			}
+		}
+	}
+}
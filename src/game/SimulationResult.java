@@ -0,0 +1,135 @@
+package game;
+
+/**
+ * Totals collected from a batch of simulated games. Results from separate
+ * batches can be merged in any order and give the same totals.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class SimulationResult {
+	/**
+	 * The width of each bucket of the move count histogram.
+	 */
+	public static final int BUCKET_SIZE = 10;
+
+	// fields
+	private long games;
+	private long wins;
+	private long moves;
+	private final long[] shufflesUsed = new long[3];
+	private final long[] histogram;
+	private long nanos;
+
+	/**
+	 * @param maxMoves is the most moves a single game can take
+	 */
+	public SimulationResult(int maxMoves) {
+		histogram = new long[maxMoves / BUCKET_SIZE + 1];
+	}
+
+	/**
+	 * Records the outcome of a single game.
+	 *
+	 * @param won is true if the game was won
+	 * @param moveCount is the number of moves made, not counting shuffles
+	 * @param shuffles is the number of shuffles used
+	 */
+	public void record(boolean won, int moveCount, int shuffles) {
+		games++;
+		if (won) {
+			wins++;
+		}
+		moves += moveCount;
+		shufflesUsed[shuffles]++;
+		histogram[moveCount / BUCKET_SIZE]++;
+	}
+
+	/**
+	 * Adds the totals of another result to this one.
+	 *
+	 * @param other is the result to add
+	 */
+	public void merge(SimulationResult other) {
+		games += other.games;
+		wins += other.wins;
+		moves += other.moves;
+		for (int i = 0; i < shufflesUsed.length; i++) {
+			shufflesUsed[i] += other.shufflesUsed[i];
+		}
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] += other.histogram[i];
+		}
+	}
+
+	/**
+	 * @param nanos is the wall clock time taken by the whole batch
+	 */
+	public void setNanos(long nanos) {
+		this.nanos = nanos;
+	}
+
+	/**
+	 * @return the number of games played
+	 */
+	public long getGames() {
+		return games;
+	}
+
+	/**
+	 * @return the number of games won
+	 */
+	public long getWins() {
+		return wins;
+	}
+
+	/**
+	 * @return the fraction of games won, 0-1
+	 */
+	public double getWinRate() {
+		return games == 0 ? 0 : (double)wins / games;
+	}
+
+	/**
+	 * @return the number of games played per second of wall clock time
+	 */
+	public double getGamesPerSecond() {
+		return nanos == 0 ? 0 : games * 1e9 / nanos;
+	}
+
+	/**
+	 * @param bucket is the index of a histogram bucket
+	 * @return the number of games whose move count was in that bucket
+	 */
+	public long getHistogram(int bucket) {
+		return histogram[bucket];
+	}
+
+	/**
+	 * @return a multi-line report of every total
+	 */
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		report.append("Games: ").append(games).append('\n');
+		report.append("Wins: ").append(wins).append('\n');
+		report.append(String.format("Win rate: %.4f%%%n",
+				getWinRate() * 100));
+		report.append(String.format("Average moves: %.1f%n",
+				games == 0 ? 0.0 : (double)moves / games));
+		for (int i = 0; i < shufflesUsed.length; i++) {
+			report.append("Games using ").append(i).append(" shuffles: ")
+					.append(shufflesUsed[i]).append('\n');
+		}
+		report.append(String.format("Throughput: %.0f games/sec%n",
+				getGamesPerSecond()));
+		report.append("Moves per game:\n");
+		for (int i = 0; i < histogram.length; i++) {
+			if (histogram[i] > 0) {
+				report.append(String.format("  %4d-%-4d %d%n",
+						i * BUCKET_SIZE, (i + 1) * BUCKET_SIZE - 1,
+						histogram[i]));
+			}
+		}
+		return report.toString();
+	}
+}
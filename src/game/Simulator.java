@@ -0,0 +1,158 @@
+package game;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays many random deals of carpet solitaire without any window, to
+ * estimate how often a strategy wins.
+ *
+ * The deals are numbered, and deal i is the deal whose ID is
+ * Deal.idOf(seed, i), with the same layout and shuffles as when that ID is
+ * played in Main. Strategies draw their random choices from the rest of
+ * the layout stream. The range of deals is split
+ * in half until each piece is small, and the pieces are run on a fork/join
+ * pool, so every core is kept busy while the totals stay exactly the same
+ * no matter how many threads are used.
+ *
+ * Usage: java game.Simulator [games] [random|greedy|solver] [seed]
+ * [threads] [size], where size is the board, such as 8x26, 4x13 if left
+ * out
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class Simulator extends RecursiveTask<SimulationResult> {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The most moves a simulated game may take before it counts as lost.
+	 */
+	public static final int MAX_MOVES = 1000;
+	/**
+	 * The number of shuffles allowed in each game, as in Main.
+	 */
+	public static final int SHUFFLES = 2;
+
+	// the number of deals below which a task is not split any further
+	private static final int THRESHOLD = 256;
+
+	// fields
+	private final long seed;
+	private final long first;
+	private final long last;
+	private final Strategy strategy;
+	private final BoardShape shape;
+
+	/**
+	 * @param seed picks every deal; the same seed always gives the same
+	 *  results
+	 * @param first is the number of the first deal to play
+	 * @param last is one more than the number of the last deal to play
+	 * @param strategy picks the moves; it is copied, never used directly
+	 */
+	public Simulator(long seed, long first, long last, Strategy strategy) {
+		this(seed, first, last, strategy, BoardShape.STANDARD);
+	}
+
+	/**
+	 * @param seed picks every deal; the same seed always gives the same
+	 *  results
+	 * @param first is the number of the first deal to play
+	 * @param last is one more than the number of the last deal to play
+	 * @param strategy picks the moves; it is copied, never used directly
+	 * @param shape is the size of the board the deals are played on
+	 */
+	public Simulator(long seed, long first, long last, Strategy strategy,
+			BoardShape shape) {
+		this.seed = seed;
+		this.first = first;
+		this.last = last;
+		this.strategy = strategy;
+		this.shape = shape;
+	}
+
+	/**
+	 * Plays the deals, splitting the work if there are too many for one
+	 * task.
+	 */
+	protected SimulationResult compute() {
+		if (last - first <= THRESHOLD) {
+			return play();
+		}
+		long middle = (first + last) >>> 1;
+		Simulator left = new Simulator(seed, first, middle, strategy, shape);
+		Simulator right = new Simulator(seed, middle, last, strategy, shape);
+		left.fork();
+		SimulationResult result = right.compute();
+		result.merge(left.join());
+		return result;
+	}
+
+	/**
+	 * Plays every deal of this task on the current thread.
+	 */
+	private SimulationResult play() {
+		SimulationResult result = new SimulationResult(MAX_MOVES);
+		BoardState board = new BoardState(shape);
+		Strategy player = strategy.newInstance();
+		int[] moves = new int[MoveGenerator.maxMoves(shape)];
+		SplitMix rnd = new SplitMix(0);
+		SplitMix shuffleRnd = new SplitMix(0);
+		for (long deal = first; deal < last; deal++) {
+			long id = Deal.idOf(seed, deal);
+			rnd.setSeed(Deal.layoutSeed(id));
+			board.deal(rnd);
+			int shuffles = SHUFFLES;
+			int moveCount = 0;
+			player.reset(board, shuffles);
+			while (moveCount < MAX_MOVES && !board.isWon()) {
+				int count = MoveGenerator.generate(board, moves);
+				int choice = count == 0 ? -1
+						: player.choose(board, moves, count, rnd);
+				if (choice >= 0) {
+					board.swap(Solver.moveFrom(moves[choice]),
+							Solver.moveTo(moves[choice]));
+					moveCount++;
+				} else if (shuffles > 0) {
+					// the same shuffle as the Shuffle action
+					shuffleRnd.setSeed(Deal.shuffleSeed(id, shuffles));
+					board.shuffle(shuffleRnd);
+					shuffles--;
+					player.reset(board, shuffles);
+				} else {
+					break;
+				}
+			}
+			result.record(board.isWon(), moveCount, SHUFFLES - shuffles);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs a simulation and prints the results.
+	 *
+	 * @param args are the number of games, the strategy name, the seed, the
+	 *  number of threads, and the size of the board, all optional
+	 */
+	public static void main(String[] args) {
+		long games = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		String name = args.length > 1 ? args[1] : "greedy";
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		int threads = args.length > 3 ? Integer.parseInt(args[3])
+				: Runtime.getRuntime().availableProcessors();
+		BoardShape shape = args.length > 4 ? BoardShape.parse(args[4])
+				: BoardShape.STANDARD;
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		SimulationResult result = pool.invoke(
+				new Simulator(seed, 0, games, Strategy.forName(name), shape));
+		result.setNanos(System.nanoTime() - start);
+		pool.shutdown();
+
+		System.out.println("Strategy: " + name + ", seed: " + seed
+				+ ", threads: " + threads + ", board: " + shape);
+		System.out.print(result);
+	}
+}
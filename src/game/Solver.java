@@ -0,0 +1,516 @@
+package game;
+
+/**
+ * Searches for the shortest winning line from a carpet solitaire position.
+ *
+ * The search runs in passes. The first pass is a depth-first search with
+ * the most promising moves tried first, which quickly finds some winning
+ * line or proves there is none. Each later pass looks for a line at least
+ * one move shorter than the best so far, cutting off any path whose length
+ * plus the number of cards not yet in their final column would go over
+ * that bound. When a pass finishes without a line, the best line is known
+ * to be the shortest.
+ *
+ * Every position that is visited goes into a transposition table keyed by
+ * the board's Zobrist hash, which both cuts off repeated positions and
+ * remembers lower bounds learned in earlier passes, so that later passes
+ * skip the parts of the tree that are already known to be too long.
+ *
+ * A shuffle is only tried once no other move is possible, matching the
+ * advice in the rules. Shuffles are drawn the same way as in Deal, with
+ * the shuffle seed taking the place of the deal ID: the shuffle made while
+ * r shuffles remain uses SplitMix stream r of the seed. A line found for a
+ * deal ID can therefore be played in that deal. Without shuffles the line
+ * found is always the shortest; with shuffles it is the shortest the
+ * estimate allows, since a shuffle can fix many cards at once. Typical
+ * deals have far too many positions to search completely, so the search
+ * gives up after a fixed number of positions and reports the best line
+ * found.
+ *
+ * Once no shuffles remain and only a few cards are out of the ordered
+ * runs, the rest of the line is read from the endgame table, if there is
+ * one, instead of being searched. The table gives the shortest line
+ * exactly, so lines found with it are just as short.
+ *
+ * A Solver is not thread-safe, but allocates nothing while searching, so a
+ * single instance can be reused for many searches, on boards of any size.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class Solver {
+	/**
+	 * Result of a search that found a winning line.
+	 */
+	public static final int SOLVED = 0;
+	/**
+	 * Result of a search that proved no winning line exists.
+	 */
+	public static final int UNSOLVABLE = 1;
+	/**
+	 * Result of a search that ran out of nodes before finishing.
+	 */
+	public static final int UNKNOWN = 2;
+	/**
+	 * The move that stands for a shuffle in a winning line.
+	 */
+	public static final int SHUFFLE = -1;
+	/**
+	 * The longest line that will be searched for.
+	 */
+	public static final int MAX_DEPTH = 1024;
+	/**
+	 * The most shuffles a search can be given.
+	 */
+	public static final int MAX_SHUFFLES = 3;
+
+	// values returned from search that are not bounds
+	private static final int FOUND = -1;
+	private static final int ABORTED = -2;
+	private static final int INFINITE = Short.MAX_VALUE;
+
+	// mixed into the hash so that the same layout with a different number
+	// of shuffles remaining is a different position
+	private static final long SHUFFLE_KEY = 0x9E3779B97F4A7C15L;
+
+	// transposition table, stored as parallel arrays in buckets of two
+	private final long[] keys;
+	private final short[] depths;
+	private final short[] bounds;
+	private final int[] stamps;
+	private final int mask;
+	private int firstStamp;
+	private int stamp;
+
+	// search state, sized for the board by resize
+	private BoardState board;
+	private BoardShape shape;
+	private int[][] moves;
+	private short[][] unshuffled;
+	private final int[] path = new int[MAX_DEPTH];
+	private final int[] line = new int[MAX_DEPTH];
+	private final SplitMix shuffleRandom = new SplitMix(0);
+	private final long nodeLimit;
+	private long shuffleSeed;
+	private int startShuffles;
+	private int bound;
+	private int lineLength;
+	private boolean shortest;
+	private long nodes;
+	private boolean pruned;
+	// looks up endgames, or null if there is no table
+	private final Tablebase.Probe endgame;
+
+	/**
+	 * Constructs a solver with a table of about a million positions, which
+	 * gives up after 250,000 positions, a few tens of milliseconds, and
+	 * uses the default endgame table.
+	 */
+	public Solver() {
+		this(20, 250000);
+	}
+
+	/**
+	 * @param tableBits is the log base 2 of the number of positions the
+	 *  transposition table holds
+	 * @param nodeLimit is the number of positions a search may visit before
+	 *  it gives up
+	 */
+	public Solver(int tableBits, long nodeLimit) {
+		this(tableBits, nodeLimit, Tablebase.getDefault());
+	}
+
+	/**
+	 * @param tableBits is the log base 2 of the number of positions the
+	 *  transposition table holds
+	 * @param nodeLimit is the number of positions a search may visit before
+	 *  it gives up
+	 * @param tablebase finishes endgames without searching them, or is null
+	 *  to search everything
+	 */
+	public Solver(int tableBits, long nodeLimit, Tablebase tablebase) {
+		int size = 1 << tableBits;
+		keys = new long[size];
+		depths = new short[size];
+		bounds = new short[size];
+		stamps = new int[size];
+		mask = size - 1;
+		this.nodeLimit = nodeLimit;
+		endgame = tablebase == null ? null : tablebase.newProbe();
+		resize(BoardShape.STANDARD);
+	}
+
+	/**
+	 * Searches for the shortest winning line from a position. If the search
+	 * gives up after finding a line, the result is still SOLVED, and
+	 * isShortest reports whether the line is known to be the shortest.
+	 *
+	 * @param start is the position to search from, on a board of any size;
+	 *  it is not changed
+	 * @param shuffles is the number of shuffles remaining, at most
+	 *  MAX_SHUFFLES
+	 * @param shuffleSeed picks the outcome of each shuffle; pass the deal ID
+	 *  to find a line that can be played in that deal
+	 * @return SOLVED, UNSOLVABLE, or UNKNOWN
+	 * @throws IllegalArgumentException if shuffles is negative or more than
+	 *  MAX_SHUFFLES
+	 */
+	public int solve(BoardState start, int shuffles, long shuffleSeed) {
+		if (shuffles < 0 || shuffles > MAX_SHUFFLES) {
+			throw new IllegalArgumentException("Cannot search with "
+					+ shuffles + " shuffles; the most is " + MAX_SHUFFLES
+					+ ".");
+		}
+		if (!start.getShape().equals(shape)) {
+			resize(start.getShape());
+		}
+		board.copyFrom(start);
+		this.shuffleSeed = shuffleSeed;
+		startShuffles = shuffles;
+		lineLength = 0;
+		shortest = false;
+		nodes = 0;
+
+		// entries stamped before this search began are ignored, so the table
+		// never needs to be cleared
+		firstStamp = stamp + 1;
+		int result = pass(MAX_DEPTH);
+		if (result == ABORTED) {
+			return UNKNOWN;
+		} else if (result != FOUND) {
+			return UNSOLVABLE;
+		}
+
+		// deepen until a pass fails to beat the best line or runs out
+		while (result == FOUND) {
+			result = pass(lineLength - 1);
+		}
+		shortest = result != ABORTED;
+		return SOLVED;
+	}
+
+	/**
+	 * @return true if the line found by the last search is known to be the
+	 *         shortest
+	 */
+	public boolean isShortest() {
+		return shortest;
+	}
+
+	/**
+	 * @return the number of moves in the line found by the last search
+	 */
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	/**
+	 * @param i is the position of the move in the line, starting at 0
+	 * @return a move from the line found by the last search, either SHUFFLE
+	 *         or a value to be read with moveFrom and moveTo
+	 */
+	public int getMove(int i) {
+		return line[i];
+	}
+
+	/**
+	 * @return the number of positions visited by the last search
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @param move is a move other than SHUFFLE
+	 * @return the position of the card being moved
+	 */
+	public static int moveFrom(int move) {
+		return (move >> 12) & 0xFFF;
+	}
+
+	/**
+	 * @param move is a move other than SHUFFLE
+	 * @return the position of the blank space the card is moved to
+	 */
+	public static int moveTo(int move) {
+		return move & 0xFFF;
+	}
+
+	//=========================================================================
+	// Search
+	//=========================================================================
+
+	/**
+	 * Runs one pass of the search, copying any line found into line.
+	 *
+	 * @return FOUND, ABORTED, or the result of the top level search
+	 */
+	private int pass(int limit) {
+		if (limit < 0) {
+			return INFINITE;
+		}
+		bound = limit;
+		stamp++;
+		pruned = false;
+		int result = search(0, misplaced(), startShuffles);
+		if (result == FOUND) {
+			System.arraycopy(path, 0, line, 0, lineLength);
+		}
+		return result;
+	}
+
+	/**
+	 * Searches every line from the current position whose estimated length
+	 * fits within the bound.
+	 *
+	 * @return FOUND, ABORTED, or the smallest estimate that went over the
+	 *         bound, INFINITE if none did
+	 */
+	private int search(int depth, int estimate, int shuffles) {
+		nodes++;
+		if (estimate == 0 && board.isWon()) {
+			lineLength = depth;
+			return FOUND;
+		}
+
+		// an endgame in the table needs no search, only the moves of the
+		// line to be filled in if it is short enough
+		if (shuffles == 0 && endgame != null) {
+			int distance = endgame.lookup(board);
+			if (distance == Tablebase.LOST) {
+				return INFINITE;
+			} else if (distance >= 0) {
+				if (depth + distance > bound) {
+					return depth + distance;
+				}
+				follow(depth, distance);
+				lineLength = depth + distance;
+				return FOUND;
+			}
+		}
+
+		// use a better estimate from an earlier iteration if there is one,
+		// and stop if this position was already reached by a shorter path
+		long key = board.getHash() ^ (shuffles * SHUFFLE_KEY);
+		int entry = probe(key);
+		int lower = estimate;
+		if (entry >= 0) {
+			lower = Math.max(lower, bounds[entry]);
+			if (stamps[entry] == stamp && depths[entry] <= depth) {
+				pruned = true;
+				return INFINITE;
+			}
+		}
+		if (depth + lower > bound) {
+			return depth + lower;
+		}
+		if (depth == MAX_DEPTH) {
+			return depth + 1;
+		}
+		if (nodes > nodeLimit) {
+			return ABORTED;
+		}
+		store(key, depth, lower);
+
+		// pruned is set by any child cut off by the table, in which case
+		// nothing can be learned about this position
+		boolean outerPruned = pruned;
+		pruned = false;
+		int best = INFINITE;
+		int[] buffer = moves[depth];
+		int count = generate(buffer);
+		for (int i = 0; i < count; i++) {
+			int move = buffer[i] & 0xFFFFFF;
+			int from = moveFrom(move);
+			int to = moveTo(move);
+			int change = estimateChange(from, to);
+			board.swap(from, to);
+			path[depth] = move;
+			int result = search(depth + 1, estimate + change, shuffles);
+			board.swap(from, to);
+			if (result == FOUND || result == ABORTED) {
+				return result;
+			}
+			best = Math.min(best, result);
+		}
+
+		// with no moves left, the only option is a shuffle
+		if (count == 0 && shuffles > 0) {
+			short[] saved = unshuffled[shuffles];
+			board.getCells(saved);
+			shuffleRandom.setSeed(Deal.shuffleSeed(shuffleSeed, shuffles));
+			board.shuffle(shuffleRandom);
+			path[depth] = SHUFFLE;
+			int result = search(depth + 1, misplaced(), shuffles - 1);
+			board.setCells(saved);
+			if (result == FOUND || result == ABORTED) {
+				return result;
+			}
+			best = Math.min(best, result);
+		}
+
+		if (!pruned) {
+			store(key, depth, Math.min(best - depth, INFINITE));
+		}
+		pruned |= outerPruned;
+		return best;
+	}
+
+	/**
+	 * Fills path from depth on with a shortest line from an endgame in the
+	 * table, by taking a move one step closer to the win each time, and
+	 * leaves the board as it was.
+	 *
+	 * @throws IllegalStateException if no move is closer, which means the
+	 *  table is wrong
+	 */
+	private void follow(int depth, int distance) {
+		for (int i = 0; i < distance; i++) {
+			// the most promising move is usually the right one
+			int[] buffer = moves[depth + i];
+			int count = generate(buffer);
+			int move = -1;
+			for (int m = 0; m < count && move < 0; m++) {
+				int from = moveFrom(buffer[m]);
+				int to = moveTo(buffer[m]);
+				board.swap(from, to);
+				if (endgame.lookup(board) == distance - i - 1) {
+					move = buffer[m] & 0xFFFFFF;
+				} else {
+					board.swap(from, to);
+				}
+			}
+			if (move < 0) {
+				throw new IllegalStateException("Endgame table is corrupt.");
+			}
+			path[depth + i] = move;
+		}
+		for (int i = depth + distance - 1; i >= depth; i--) {
+			board.swap(moveFrom(path[i]), moveTo(path[i]));
+		}
+	}
+
+	/**
+	 * Fills buffer with every legal move from the current position, best
+	 * first. Each entry holds an ordering score above bit 24.
+	 *
+	 * @return the number of moves
+	 */
+	private int generate(int[] buffer) {
+		int count = MoveGenerator.generate(board, buffer);
+		for (int i = 0; i < count; i++) {
+			buffer[i] = order(moveFrom(buffer[i]), moveTo(buffer[i]));
+		}
+
+		// insertion sort, highest score first
+		for (int i = 1; i < count; i++) {
+			int move = buffer[i];
+			int j = i - 1;
+			while (j >= 0 && buffer[j] < move) {
+				buffer[j + 1] = buffer[j];
+				j--;
+			}
+			buffer[j + 1] = move;
+		}
+		return count;
+	}
+
+	/**
+	 * Packs a move with a score for sorting. Moves that extend the ordered
+	 * run at the start of a row come first, then moves that bring a card to
+	 * its final column, and last moves that take a card out of it.
+	 */
+	private int order(int from, int to) {
+		int score = 8 - 2 * estimateChange(from, to);
+		int columns = shape.getColumns();
+		if (to % columns == board.lockedLength(to / columns)) {
+			score += 4;
+		}
+		return (score << 24) | (from << 12) | to;
+	}
+
+	/**
+	 * @return the change in the number of misplaced cards if the card at
+	 *         from is moved to the blank space at to
+	 */
+	private int estimateChange(int from, int to) {
+		int column = shape.numberOf(board.get(from)) - 1;
+		int columns = shape.getColumns();
+		int change = 0;
+		if (to % columns == column) {
+			change--;
+		}
+		if (from % columns == column) {
+			change++;
+		}
+		return change;
+	}
+
+	/**
+	 * @return the number of cards not in their final column. Every one of
+	 *         them must move at least once, so this never overestimates.
+	 */
+	private int misplaced() {
+		int count = 0;
+		int columns = shape.getColumns();
+		for (int i = 0; i < shape.getSlots(); i++) {
+			int card = board.get(i);
+			if (card != BoardState.GAP
+					&& shape.numberOf(card) - 1 != i % columns) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Makes the search state again for boards of another size.
+	 */
+	private void resize(BoardShape shape) {
+		this.shape = shape;
+		board = new BoardState(shape);
+		moves = new int[MAX_DEPTH + 1][MoveGenerator.maxMoves(shape)];
+		unshuffled = new short[MAX_SHUFFLES + 1][shape.getSlots()];
+	}
+
+	//=========================================================================
+	// Transposition table
+	//=========================================================================
+
+	/**
+	 * @return the index of the entry for key, or -1 if there is none
+	 */
+	private int probe(long key) {
+		int i = (int)key & mask & ~1;
+		if (stamps[i] >= firstStamp && keys[i] == key) {
+			return i;
+		}
+		if (stamps[i + 1] >= firstStamp && keys[i + 1] == key) {
+			return i + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Records a position as visited at depth in this iteration, with a lower
+	 * bound on the moves remaining. If the position is not already in its
+	 * bucket, an entry from an older search or iteration is replaced first,
+	 * then the entry with the weaker bound.
+	 */
+	private void store(long key, int depth, int lower) {
+		int i = probe(key);
+		if (i < 0) {
+			i = (int)key & mask & ~1;
+			if (stamps[i] >= firstStamp && (stamps[i + 1] < stamps[i]
+					|| (stamps[i + 1] == stamps[i]
+					&& bounds[i + 1] < bounds[i]))) {
+				i++;
+			}
+			keys[i] = key;
+			bounds[i] = 0;
+		}
+		depths[i] = (short)depth;
+		bounds[i] = (short)Math.max(bounds[i], lower);
+		stamps[i] = stamp;
+	}
+}
@@ -0,0 +1,88 @@
+package game;
+
+import java.util.Random;
+
+/**
+ * A fast random number generator that can be split into independent
+ * streams, using the SplitMix64 algorithm. It extends java.util.Random so
+ * that it can be passed anywhere a Random is expected, but unlike Random it
+ * is not synchronized, so each thread should use its own instance.
+ *
+ * Stream number i of a seed is always the same, no matter which thread
+ * asks for it or in what order, which is what makes parallel runs
+ * reproducible.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class SplitMix extends Random {
+	private static final long serialVersionUID = 1L;
+
+	// the odd constant added to the state for every number generated
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private long state;
+
+	/**
+	 * @param seed is the starting state of the generator
+	 */
+	public SplitMix(long seed) {
+		state = seed;
+	}
+
+	/**
+	 * Returns stream number index of a seed. Different indexes give streams
+	 * that are statistically independent of each other.
+	 *
+	 * @param seed is the seed shared by all the streams
+	 * @param index is which stream to return
+	 * @return a new generator for that stream
+	 */
+	public static SplitMix stream(long seed, long index) {
+		return new SplitMix(streamSeed(seed, index));
+	}
+
+	/**
+	 * @param seed is the seed shared by all the streams
+	 * @param index is which stream to look up
+	 * @return the starting state of that stream, for use with setSeed
+	 */
+	public static long streamSeed(long seed, long index) {
+		return mix(seed + (index + 1) * GOLDEN_GAMMA);
+	}
+
+	/**
+	 * @return a new generator whose numbers are independent of this one's
+	 */
+	public SplitMix split() {
+		return new SplitMix(mix(nextLong()));
+	}
+
+	/**
+	 * Resets this generator, without creating a new object.
+	 */
+	@Override
+	public void setSeed(long seed) {
+		state = seed;
+	}
+
+	@Override
+	public long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+	@Override
+	protected int next(int bits) {
+		return (int)(nextLong() >>> (64 - bits));
+	}
+
+	/**
+	 * The SplitMix64 output function.
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
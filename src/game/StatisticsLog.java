@@ -0,0 +1,557 @@
+package game;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the result of every game played, across sessions, with totals that
+ * can be asked for at any time without reading the results again.
+ *
+ * The results are kept in a file that is only ever added to: a summary of
+ * older games, then one fixed-size record per game, holding its deal ID,
+ * whether it was won, the moves and shuffles used, and when and for how
+ * long it was played. Every record is also added to the totals in memory
+ * as it is made, so the win rate and streaks are found in constant time,
+ * percentiles of the moves and time taken to win in O(log n), and the
+ * totals of a day in O(log d) for d days played.
+ *
+ * Records are written in the background, on the thread of Background, so
+ * the player never waits for the disk. Once COMPACT_THRESHOLD records
+ * follow the summary, all but the last KEEP_RECORDS of them are folded into
+ * the summary, so that reading the file at startup stays quick however
+ * many games have been played.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class StatisticsLog {
+	/**
+	 * The number of records after the summary that makes the file compact
+	 * itself.
+	 */
+	public static final int COMPACT_THRESHOLD = 10000;
+	/**
+	 * The number of the most recent records kept when the file is compacted.
+	 */
+	public static final int KEEP_RECORDS = 1000;
+	/**
+	 * The most moves that percentiles can tell apart; games with more are
+	 * counted as this many.
+	 */
+	public static final int MAX_MOVES = 4095;
+	/**
+	 * The longest time in seconds that percentiles can tell apart.
+	 */
+	public static final int MAX_SECONDS = 65535;
+
+	private static final int MAGIC = 0x43525354; // "CRST"
+	private static final int VERSION = 1;
+	// magic, version, and the length of the summary
+	private static final int HEADER = 4 + 1 + 4;
+	// deal ID, end time, duration, moves, shuffles, and won
+	private static final int RECORD = 8 + 8 + 4 + 4 + 1 + 1;
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	// prints any error from writing the file; the totals are still right
+	private static final Background.Callback<Void> REPORT =
+			new Background.Callback<Void>() {
+				public void done(Void result, Exception error) {
+					if (error != null) {
+						error.printStackTrace();
+					}
+				}
+			};
+
+	private final File file;
+	// only used on the event thread, after load
+	private Totals totals = new Totals();
+	// the number of records after the summary, which the background thread
+	// will have written once its queue is empty
+	private int records;
+
+	/**
+	 * @param file is where the results are kept
+	 */
+	public StatisticsLog(File file) {
+		this.file = file;
+	}
+
+	//=========================================================================
+	// Recording
+	//=========================================================================
+
+	/**
+	 * Reads the results kept so far, replacing the totals. A missing or
+	 * damaged file gives empty totals, and a record cut short by a crash is
+	 * dropped. The file is read in a single pass.
+	 */
+	public void load() {
+		totals = new Totals();
+		records = 0;
+		if (!file.isFile()) {
+			return;
+		}
+		try {
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+			Totals summary = readSummary(in);
+			int count = in.remaining() / RECORD;
+			for (int i = 0; i < count; i++) {
+				summary.add(in);
+			}
+			totals = summary;
+			records = count;
+			if (in.hasRemaining()) {
+				// cut off the part of a record, so the next one lines up
+				final long length = in.position();
+				Background.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						truncate(length);
+						return null;
+					}
+				}, REPORT);
+			}
+			compactIfDue();
+		} catch (IOException e) {
+			e.printStackTrace();
+			// keep the damaged file for whoever wants it, and start a new
+			// one with the next record
+			Background.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					Files.move(file.toPath(),
+							new File(file.getPath() + ".bad").toPath(),
+							StandardCopyOption.REPLACE_EXISTING);
+					return null;
+				}
+			}, REPORT);
+		}
+	}
+
+	/**
+	 * Records the result of a game: the totals change at once, and the file
+	 * soon after.
+	 *
+	 * @param dealId is the ID of the deal played
+	 * @param won is true if the game was won
+	 * @param moves is the number of moves made
+	 * @param shuffles is the number of shuffles used
+	 * @param start is when the game started, in milliseconds since 1970
+	 * @param end is when the game ended, in milliseconds since 1970
+	 */
+	public void record(long dealId, boolean won, int moves, int shuffles,
+			long start, long end) {
+		final ByteBuffer record = ByteBuffer.allocate(RECORD);
+		record.putLong(dealId).putLong(end)
+				.putInt((int)Math.min(end - start, Integer.MAX_VALUE))
+				.putInt(moves).put((byte)shuffles).put((byte)(won ? 1 : 0));
+		record.flip();
+		totals.add(record.duplicate());
+		records++;
+		Background.submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				append(record);
+				return null;
+			}
+		}, REPORT);
+		compactIfDue();
+	}
+
+	//=========================================================================
+	// Queries
+	//=========================================================================
+
+	/**
+	 * @return the number of games recorded
+	 */
+	public long getGames() {
+		return totals.games;
+	}
+
+	/**
+	 * @return the number of games won
+	 */
+	public long getWins() {
+		return totals.wins;
+	}
+
+	/**
+	 * @return the fraction of games won, 0 if none have been recorded
+	 */
+	public double getWinRate() {
+		return totals.games == 0 ? 0 : (double)totals.wins / totals.games;
+	}
+
+	/**
+	 * @return the number of games won in a row, up to the last one
+	 */
+	public int getCurrentStreak() {
+		return totals.streak;
+	}
+
+	/**
+	 * @return the most games ever won in a row
+	 */
+	public int getLongestStreak() {
+		return totals.longestStreak;
+	}
+
+	/**
+	 * @param fraction is the fraction of won games, from 0 to 1, that took
+	 *  no more moves than the result
+	 * @return that many moves, or -1 if no game has been won
+	 */
+	public int getMovesPercentile(double fraction) {
+		return totals.moves.percentile(fraction);
+	}
+
+	/**
+	 * @param fraction is the fraction of won games, from 0 to 1, that took
+	 *  no longer than the result
+	 * @return that many seconds, or -1 if no game has been won
+	 */
+	public int getSecondsPercentile(double fraction) {
+		return totals.seconds.percentile(fraction);
+	}
+
+	/**
+	 * @param time is a time in milliseconds since 1970
+	 * @return the number of games played and won on the day of that time in
+	 *         the local time zone, in that order
+	 */
+	public int[] getDayTotals(long time) {
+		int[] day = totals.days.get(dayOf(time));
+		return day == null ? new int[2] : day.clone();
+	}
+
+	//=========================================================================
+	// Files
+	//=========================================================================
+
+	/**
+	 * Adds a record to the end of the file, creating it with an empty
+	 * summary if it does not exist.
+	 */
+	private void append(ByteBuffer record) throws IOException {
+		if (!file.isFile()) {
+			write(file, new Totals(), record);
+			return;
+		}
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		try {
+			while (record.hasRemaining()) {
+				channel.write(record);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Cuts the file off at a length.
+	 */
+	private void truncate(long length) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE);
+		try {
+			channel.truncate(length);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Compacts the file in the background once enough records follow the
+	 * summary.
+	 */
+	private void compactIfDue() {
+		if (records < COMPACT_THRESHOLD) {
+			return;
+		}
+		records = KEEP_RECORDS;
+		Background.submit(new Callable<Void>() {
+			public Void call() throws IOException {
+				compact();
+				return null;
+			}
+		}, REPORT);
+	}
+
+	/**
+	 * Folds all but the last KEEP_RECORDS records into the summary, writing
+	 * a new file and then moving it over the old one, so that a crash
+	 * leaves one or the other.
+	 */
+	private void compact() throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		Totals summary = readSummary(in);
+		int count = in.remaining() / RECORD;
+		for (int i = KEEP_RECORDS; i < count; i++) {
+			summary.add(in);
+		}
+		ByteBuffer kept = in.slice();
+		kept.limit(Math.min(count, KEEP_RECORDS) * RECORD);
+
+		File temp = new File(file.getPath() + ".tmp");
+		write(temp, summary, kept);
+		try {
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// not every file system can replace a file in one step
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Writes a whole file: the header, a summary, and records.
+	 */
+	private static void write(File dest, Totals summary, ByteBuffer records)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		summary.write(out);
+		out.flush();
+		ByteBuffer head = ByteBuffer.allocate(HEADER);
+		head.putInt(MAGIC).put((byte)VERSION).putInt(bytes.size());
+		head.flip();
+
+		ByteBuffer[] parts = { head, ByteBuffer.wrap(bytes.toByteArray()),
+				records };
+		long length = HEADER + bytes.size() + records.remaining();
+		FileChannel channel = FileChannel.open(dest.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			for (long written = 0; written < length; ) {
+				written += channel.write(parts);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads the header and summary of a file, leaving the buffer at the
+	 * first record.
+	 */
+	private static Totals readSummary(ByteBuffer in) throws IOException {
+		if (in.remaining() < HEADER || in.getInt() != MAGIC
+				|| in.get() != VERSION) {
+			throw new IOException("Not a statistics file.");
+		}
+		int length = in.getInt();
+		if (length < 0 || length > in.remaining()) {
+			throw new IOException("Damaged statistics file.");
+		}
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(
+				in.array(), in.arrayOffset() + in.position(), length));
+		Totals summary = Totals.read(data);
+		in.position(in.position() + length);
+		return summary;
+	}
+
+	/**
+	 * @return the number of a day in the local time zone, counted from
+	 *         1 January 1970
+	 */
+	private static int dayOf(long time) {
+		long local = time + TimeZone.getDefault().getOffset(time);
+		long day = local / DAY;
+		if (local < 0 && day * DAY != local) {
+			day--;
+		}
+		return (int)day;
+	}
+
+	//=========================================================================
+	// Totals
+	//=========================================================================
+
+	/**
+	 * The totals of a set of games, which can be added to one game at a
+	 * time and written as a summary.
+	 */
+	private static class Totals {
+		long games;
+		long wins;
+		int streak;
+		int longestStreak;
+		// moves and seconds taken by won games
+		final Histogram moves = new Histogram(MAX_MOVES);
+		final Histogram seconds = new Histogram(MAX_SECONDS);
+		// games played and won, by day
+		final TreeMap<Integer, int[]> days = new TreeMap<Integer, int[]>();
+
+		/**
+		 * Adds a single record, read from the buffer.
+		 */
+		void add(ByteBuffer record) {
+			record.getLong(); // the deal ID is only kept in the file
+			long end = record.getLong();
+			int duration = record.getInt();
+			int moveCount = record.getInt();
+			record.get(); // shuffles used
+			boolean won = record.get() != 0;
+
+			games++;
+			int day = dayOf(end);
+			int[] totals = days.get(day);
+			if (totals == null) {
+				totals = new int[2];
+				days.put(day, totals);
+			}
+			totals[0]++;
+			if (won) {
+				wins++;
+				totals[1]++;
+				streak++;
+				longestStreak = Math.max(longestStreak, streak);
+				moves.add(moveCount, 1);
+				seconds.add(duration / 1000, 1);
+			} else {
+				streak = 0;
+			}
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(games);
+			out.writeLong(wins);
+			out.writeInt(streak);
+			out.writeInt(longestStreak);
+			moves.write(out);
+			seconds.write(out);
+			out.writeInt(days.size());
+			for (Map.Entry<Integer, int[]> day : days.entrySet()) {
+				out.writeInt(day.getKey());
+				out.writeInt(day.getValue()[0]);
+				out.writeInt(day.getValue()[1]);
+			}
+		}
+
+		static Totals read(DataInputStream in) throws IOException {
+			Totals totals = new Totals();
+			totals.games = in.readLong();
+			totals.wins = in.readLong();
+			totals.streak = in.readInt();
+			totals.longestStreak = in.readInt();
+			totals.moves.read(in);
+			totals.seconds.read(in);
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				int day = in.readInt();
+				totals.days.put(day, new int[] { in.readInt(), in.readInt() });
+			}
+			return totals;
+		}
+	}
+
+	/**
+	 * Counts how often each value from 0 to a maximum has been seen, in a
+	 * Fenwick tree, so that both adding a value and finding a percentile
+	 * take O(log max).
+	 */
+	private static class Histogram {
+		// tree[i] is the count of the values from i - (i & -i) to i - 1
+		private final long[] tree;
+		private final int max;
+		private long count;
+
+		Histogram(int max) {
+			this.max = max;
+			tree = new long[max + 2];
+		}
+
+		void add(int value, long times) {
+			value = Math.max(0, Math.min(value, max));
+			count += times;
+			for (int i = value + 1; i < tree.length; i += i & -i) {
+				tree[i] += times;
+			}
+		}
+
+		/**
+		 * @return the smallest value at or above the given fraction of every
+		 *         value seen, or -1 if none have been seen
+		 */
+		int percentile(double fraction) {
+			if (count == 0) {
+				return -1;
+			}
+			long rank = Math.max(1, (long)Math.ceil(fraction * count));
+			rank = Math.min(rank, count);
+			// find the last position whose prefix count is below rank
+			int position = 0;
+			for (int step = Integer.highestOneBit(tree.length - 1); step > 0;
+					step >>= 1) {
+				int next = position + step;
+				if (next < tree.length && tree[next] < rank) {
+					position = next;
+					rank -= tree[next];
+				}
+			}
+			return position;
+		}
+
+		/**
+		 * Writes the count of every value that has been seen.
+		 */
+		void write(DataOutputStream out) throws IOException {
+			int distinct = 0;
+			for (int value = 0; value <= max; value++) {
+				if (countOf(value) != 0) {
+					distinct++;
+				}
+			}
+			out.writeInt(distinct);
+			for (int value = 0; value <= max; value++) {
+				long times = countOf(value);
+				if (times != 0) {
+					out.writeInt(value);
+					out.writeLong(times);
+				}
+			}
+		}
+
+		void read(DataInputStream in) throws IOException {
+			int distinct = in.readInt();
+			for (int i = 0; i < distinct; i++) {
+				int value = in.readInt();
+				add(value, in.readLong());
+			}
+		}
+
+		/**
+		 * @return the number of times a single value has been seen
+		 */
+		private long countOf(int value) {
+			return prefix(value + 1) - prefix(value);
+		}
+
+		/**
+		 * @return the number of values below end that have been seen
+		 */
+		private long prefix(int end) {
+			long sum = 0;
+			for (int i = end; i > 0; i -= i & -i) {
+				sum += tree[i];
+			}
+			return sum;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package game;
+
+import java.util.Random;
+
+/**
+ * Picks moves for a simulated game of carpet solitaire.
+ *
+ * A strategy may keep state between moves of a game, so the simulator asks
+ * for a fresh instance with newInstance for every piece of work it runs,
+ * and an instance is only ever used on the thread that made it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public abstract class Strategy {
+	/**
+	 * Called at the start of every game, and after every shuffle.
+	 *
+	 * @param board is the position the game continues from
+	 * @param shuffles is the number of shuffles remaining
+	 */
+	public void reset(BoardState board, int shuffles) {}
+
+	/**
+	 * Picks the next move.
+	 *
+	 * @param board is the current position
+	 * @param moves holds every legal move, read with Solver.moveFrom and
+	 *  Solver.moveTo
+	 * @param count is the number of legal moves, at least one
+	 * @param rnd is the random stream of the current game
+	 * @return the index of the move to make, or -1 to shuffle instead
+	 */
+	public abstract int choose(BoardState board, int[] moves, int count,
+			Random rnd);
+
+	/**
+	 * @return a new strategy of the same kind, with no state
+	 */
+	public abstract Strategy newInstance();
+
+	/**
+	 * @param name is one of "random", "greedy", or "solver"
+	 * @return a new strategy of that kind
+	 * @throws IllegalArgumentException if there is no strategy of that name
+	 */
+	public static Strategy forName(String name) {
+		if (name.equals("random")) {
+			return new RandomStrategy();
+		} else if (name.equals("greedy")) {
+			return new GreedyStrategy();
+		} else if (name.equals("solver")) {
+			return new SolverStrategy();
+		}
+		throw new IllegalArgumentException("Unknown strategy: " + name);
+	}
+
+	/**
+	 * @return true if the move only carries an ace from the start of one row
+	 *         to the start of another, which is almost never useful
+	 */
+	static boolean isAceShift(BoardState board, int move) {
+		int columns = board.getShape().getColumns();
+		return Solver.moveFrom(move) % columns == 0
+				&& Solver.moveTo(move) % columns == 0;
+	}
+
+	//=========================================================================
+	// Strategies
+	//=========================================================================
+
+	/**
+	 * Makes any legal move, chosen at random.
+	 */
+	private static class RandomStrategy extends Strategy {
+		public int choose(BoardState board, int[] moves, int count,
+				Random rnd) {
+			return rnd.nextInt(count);
+		}
+
+		public Strategy newInstance() {
+			return new RandomStrategy();
+		}
+	}
+
+	/**
+	 * Prefers moves that extend the ordered run at the start of a row, then
+	 * moves that bring a card to its final column, and otherwise picks at
+	 * random. Shuffles when only ace shifts are left.
+	 */
+	private static class GreedyStrategy extends Strategy {
+		public int choose(BoardState board, int[] moves, int count,
+				Random rnd) {
+			BoardShape shape = board.getShape();
+			int columns = shape.getColumns();
+			int best = -1;
+			int bestScore = 0;
+			int ties = 0;
+			for (int i = 0; i < count; i++) {
+				int move = moves[i];
+				if (isAceShift(board, move)) {
+					continue;
+				}
+				int to = Solver.moveTo(move);
+				int column = to % columns;
+				int score = 1;
+				if (column == board.lockedLength(to / columns)) {
+					score += 2;
+				}
+				if (column == shape.numberOf(
+						board.get(Solver.moveFrom(move))) - 1) {
+					score += 1;
+				}
+				// pick uniformly among the best, without a second pass
+				if (score > bestScore) {
+					best = i;
+					bestScore = score;
+					ties = 1;
+				} else if (score == bestScore && rnd.nextInt(++ties) == 0) {
+					best = i;
+				}
+			}
+			return best;
+		}
+
+		public Strategy newInstance() {
+			return new GreedyStrategy();
+		}
+	}
+
+	/**
+	 * Follows the line found by a Solver, searched again after every
+	 * shuffle. Plays greedily when the solver finds no line. The solver and
+	 * its table, a few MB, are kept for each thread and shared by every
+	 * instance made on it, since the simulator makes an instance for every
+	 * piece of its work.
+	 */
+	private static class SolverStrategy extends Strategy {
+		private static final ThreadLocal<Solver> SOLVERS =
+				new ThreadLocal<Solver>() {
+					protected Solver initialValue() {
+						return new Solver(18, 250000);
+					}
+				};
+
+		private final Solver solver = SOLVERS.get();
+		private final GreedyStrategy fallback = new GreedyStrategy();
+		private int next;
+		private boolean solved;
+
+		public void reset(BoardState board, int shuffles) {
+			// shuffles are left to the simulator, whose outcomes the solver
+			// cannot know in advance
+			solved = solver.solve(board, 0, 0) == Solver.SOLVED;
+			next = 0;
+		}
+
+		public int choose(BoardState board, int[] moves, int count,
+				Random rnd) {
+			if (solved && next < solver.getLineLength()) {
+				int planned = solver.getMove(next++);
+				for (int i = 0; i < count; i++) {
+					if (moves[i] == planned) {
+						return i;
+					}
+				}
+			}
+			return fallback.choose(board, moves, count, rnd);
+		}
+
+		public Strategy newInstance() {
+			return new SolverStrategy();
+		}
+	}
+}
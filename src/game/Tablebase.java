@@ -0,0 +1,677 @@
+package game;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * An endgame table: the exact number of moves to a win, or that there is
+ * none, from every position with only a few cards outside the ordered runs
+ * at the start of the rows, when no shuffles remain. Such positions take
+ * the search little time, but simulations and hints reach them over and
+ * over, and the table answers them with a single lookup.
+ *
+ * Once every row starts with an ace, the cards in the runs can never move
+ * again, so a position is set apart by the length of each run and the
+ * arrangement of the few cards and blank spaces after them. The table
+ * covers every such position with at most getDepth cards out of the runs,
+ * a set no move can leave. Positions are looked up by their canonical
+ * layout from CanonicalCodec, so each class of equivalent positions is
+ * stored once, under a key that packs the length of each run, then what
+ * fills each slot past the runs, reading the rows in order.
+ *
+ * The table is kept in a file, written by running this class:
+ *   int    magic, the letters CRTB
+ *   short  format version
+ *   byte   suits, then byte ranks, the size of the board
+ *   byte   the most cards out of the runs
+ *   byte[3] unused
+ *   int    number of positions
+ *   long[] the key of each position, in increasing order
+ *   byte[] the moves to a win from each position, or 255 for none
+ *
+ * Every number is big-endian. The file is mapped into memory when the
+ * table is first used rather than read, so only the pages a search touches
+ * are loaded, and a missing or unreadable file simply leaves every
+ * position unknown.
+ *
+ * A table may be shared between threads, but each thread must look up
+ * positions through a Probe of its own.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class Tablebase {
+	/**
+	 * The file the default table is read from.
+	 */
+	public static final String FILE = "endgame.tb";
+	/**
+	 * The most cards out of the runs in a table built without being told.
+	 */
+	public static final int DEFAULT_DEPTH = 6;
+	/**
+	 * Result of a lookup for a position the table does not cover.
+	 */
+	public static final int UNKNOWN = -1;
+	/**
+	 * Result of a lookup for a position that cannot be won without a
+	 * shuffle.
+	 */
+	public static final int LOST = -2;
+	/**
+	 * The first four bytes of a table file.
+	 */
+	public static final int MAGIC = 0x43525442;
+	/**
+	 * The current format version.
+	 */
+	public static final int VERSION = 1;
+
+	// the size of the header, which keeps the keys aligned
+	private static final int HEADER = 16;
+	// the stored value of a position with no win
+	private static final int NO_WIN = 255;
+
+	private static Tablebase defaultTable;
+
+	// fields
+	private final File file;
+	// set once the file has been looked at; the fields after it are only
+	// written before it is set
+	private volatile boolean loaded;
+	private MappedByteBuffer buffer;
+	private BoardShape shape;
+	private int depth;
+	private int count;
+	private int values;
+
+	/**
+	 * @param file is the table file, which is not read until the table is
+	 *  first used
+	 */
+	public Tablebase(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the table in FILE, shared by every caller
+	 */
+	public static synchronized Tablebase getDefault() {
+		if (defaultTable == null) {
+			defaultTable = new Tablebase(new File(FILE));
+		}
+		return defaultTable;
+	}
+
+	/**
+	 * @return true if the table file could be read
+	 */
+	public boolean isAvailable() {
+		if (!loaded) {
+			load();
+		}
+		return buffer != null;
+	}
+
+	/**
+	 * @return the size of the boards the table covers, or null if it is not
+	 *         available
+	 */
+	public BoardShape getShape() {
+		return isAvailable() ? shape : null;
+	}
+
+	/**
+	 * @return the most cards out of the runs in a position the table
+	 *         covers, or -1 if it is not available
+	 */
+	public int getDepth() {
+		return isAvailable() ? depth : -1;
+	}
+
+	/**
+	 * @return the number of positions in the table
+	 */
+	public int getSize() {
+		return isAvailable() ? count : 0;
+	}
+
+	/**
+	 * @return a new probe, for looking up positions on one thread
+	 */
+	public Probe newProbe() {
+		return new Probe();
+	}
+
+	/**
+	 * Looks up positions in the table. A probe is not thread-safe, but
+	 * allocates nothing once it has looked up its first position.
+	 */
+	public class Probe {
+		private CanonicalCodec codec;
+		private Region region;
+		private short[] cells;
+
+		private Probe() {
+		}
+
+		/**
+		 * @param board is the position to look up, of any size
+		 * @return the fewest moves to a win without shuffling, LOST if there
+		 *         is no such win, or UNKNOWN if the table does not cover the
+		 *         position
+		 */
+		public int lookup(BoardState board) {
+			if (!isAvailable() || !board.getShape().equals(shape)
+					|| board.countLocked()
+					< shape.getSuits() * shape.getRanks() - depth) {
+				return UNKNOWN;
+			}
+			if (codec == null) {
+				codec = new CanonicalCodec(shape);
+				region = new Region(shape, depth);
+				cells = new short[shape.getSlots()];
+			}
+			codec.canonicalize(board, cells);
+			long key = region.key(cells);
+			if (key < 0) {
+				return UNKNOWN;
+			}
+
+			// binary search of the keys, straight from the mapped file
+			int low = 0;
+			int high = count - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long found = buffer.getLong(HEADER + mid * 8);
+				if (found < key) {
+					low = mid + 1;
+				} else if (found > key) {
+					high = mid - 1;
+				} else {
+					int value = buffer.get(values + mid) & 0xFF;
+					return value == NO_WIN ? LOST : value;
+				}
+			}
+			return UNKNOWN;
+		}
+	}
+
+	//=========================================================================
+	// Building
+	//=========================================================================
+
+	/**
+	 * Builds the table for the standard board and writes it to FILE, or
+	 * the file named by the second argument.
+	 *
+	 * @param args may hold the most cards out of the runs, DEFAULT_DEPTH if
+	 *  not given, and then the name of the file to write
+	 * @throws IOException if the file could not be written
+	 */
+	public static void main(String[] args) throws IOException {
+		int depth = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_DEPTH;
+		File file = new File(args.length > 1 ? args[1] : FILE);
+		long start = System.nanoTime();
+		int size = build(file, BoardShape.STANDARD, depth);
+		System.out.println(size + " positions with up to " + depth
+				+ " cards out of place, "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+	}
+
+	/**
+	 * Finds every position of a board with at most depth cards out of the
+	 * runs, works out how far each is from a win, and writes the table.
+	 *
+	 * @param file is the file to write
+	 * @param shape is the size of the board
+	 * @param depth is the most cards out of the runs
+	 * @return the number of positions in the table
+	 * @throws IllegalArgumentException if the keys of the table would not
+	 *  fit in a long
+	 * @throws IOException if the file could not be written
+	 */
+	public static int build(File file, BoardShape shape, int depth)
+			throws IOException {
+		Builder builder = new Builder(shape, depth);
+		builder.enumerate(0, depth, shape.getRanks());
+		builder.connect();
+		builder.solve();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeByte(shape.getSuits());
+			out.writeByte(shape.getRanks());
+			out.writeByte(depth);
+			out.write(new byte[3]);
+			out.writeInt(builder.count);
+			for (int i = 0; i < builder.count; i++) {
+				out.writeLong(builder.keys[i]);
+			}
+			for (int i = 0; i < builder.count; i++) {
+				out.writeByte(builder.distances[i] < 0 ? NO_WIN
+						: builder.distances[i]);
+			}
+		} finally {
+			out.close();
+		}
+		return builder.count;
+	}
+
+	/**
+	 * The state of a table being built.
+	 */
+	private static final class Builder {
+		private final BoardShape shape;
+		private final int suits;
+		private final int columns;
+		private final Region region;
+		private final CanonicalCodec codec;
+		private final BoardState board;
+		private final short[] cells;
+		private final short[] canonical;
+		private final int[] moves;
+
+		// the position being laid out: the length of each run, the cards
+		// after the runs, and the slots they go in
+		private final int[] lengths;
+		private final int[] cards;
+		private final boolean[] placed;
+		private final int[] free;
+		private int cardCount;
+		private int freeCount;
+		private int gaps;
+
+		// the keys found so far, then the positions of the table
+		private long[] keys = new long[1024];
+		private int count;
+		// the positions each position moves to, suits to a position, -1
+		// where there are fewer moves
+		private int[] successors;
+		private int[] distances;
+
+		Builder(BoardShape shape, int depth) {
+			this.shape = shape;
+			suits = shape.getSuits();
+			columns = shape.getColumns();
+			region = new Region(shape, depth);
+			codec = new CanonicalCodec(shape);
+			board = new BoardState(shape);
+			cells = new short[shape.getSlots()];
+			canonical = new short[shape.getSlots()];
+			moves = new int[MoveGenerator.maxMoves(shape)];
+			lengths = new int[suits];
+			cards = new int[depth];
+			placed = new boolean[depth];
+			free = new int[depth + suits];
+		}
+
+		/**
+		 * Lays out every position whose runs are no longer than those of the
+		 * rows above, from row on. Every position is equivalent to one with
+		 * its rows in that order.
+		 *
+		 * @param missing is the most cards the rows from row on may leave out
+		 *  of their runs
+		 * @param longest is the length of the run of the row above
+		 */
+		void enumerate(int row, int missing, int longest) {
+			int ranks = shape.getRanks();
+			if (row == suits) {
+				cardCount = 0;
+				freeCount = 0;
+				for (int r = 0; r < suits; r++) {
+					for (int col = 0; col < columns; col++) {
+						int slot = r * columns + col;
+						if (col < lengths[r]) {
+							cells[slot] = (short)shape.code(r + 1, col + 1);
+						} else {
+							free[freeCount++] = slot;
+							if (col < ranks) {
+								cards[cardCount++] = shape.code(r + 1, col + 1);
+							}
+						}
+					}
+				}
+				gaps = suits;
+				arrange(0);
+				return;
+			}
+			for (int length = longest; length >= Math.max(1, ranks - missing);
+					length--) {
+				lengths[row] = length;
+				enumerate(row + 1, missing - (ranks - length), length);
+			}
+		}
+
+		/**
+		 * Fills the free slots from index on with every arrangement of the
+		 * cards not yet placed and the blank spaces, except those that put
+		 * the next card of a run just after it, which belong to a longer
+		 * run.
+		 */
+		private void arrange(int index) {
+			if (index == freeCount) {
+				board.setCells(cells);
+				codec.canonicalize(board, canonical);
+				add(region.key(canonical));
+				return;
+			}
+			int slot = free[index];
+			int row = slot / columns;
+			int col = slot % columns;
+			int next = col == lengths[row] ? shape.code(row + 1, col + 1) : -1;
+			for (int i = 0; i < cardCount; i++) {
+				if (!placed[i] && cards[i] != next) {
+					placed[i] = true;
+					cells[slot] = (short)cards[i];
+					arrange(index + 1);
+					placed[i] = false;
+				}
+			}
+			if (gaps > 0) {
+				gaps--;
+				cells[slot] = BoardState.GAP;
+				arrange(index + 1);
+				gaps++;
+			}
+		}
+
+		/**
+		 * Adds a key to those found so far.
+		 */
+		private void add(long key) {
+			if (count == keys.length) {
+				keys = Arrays.copyOf(keys, count * 2);
+			}
+			keys[count++] = key;
+		}
+
+		/**
+		 * Sorts the keys found, dropping repeats, and finds the positions
+		 * each one moves to.
+		 *
+		 * @throws IllegalStateException if a move leaves the table, which
+		 *  would mean the positions were not all found
+		 */
+		void connect() {
+			Arrays.sort(keys, 0, count);
+			int unique = 0;
+			for (int i = 0; i < count; i++) {
+				if (unique == 0 || keys[i] != keys[unique - 1]) {
+					keys[unique++] = keys[i];
+				}
+			}
+			count = unique;
+			keys = Arrays.copyOf(keys, count);
+
+			successors = new int[count * suits];
+			Arrays.fill(successors, -1);
+			for (int i = 0; i < count; i++) {
+				region.cells(keys[i], cells);
+				board.setCells(cells);
+				int moveCount = MoveGenerator.generate(board, moves);
+				if (moveCount > suits) {
+					throw new IllegalStateException("Row without an ace.");
+				}
+				for (int m = 0; m < moveCount; m++) {
+					int from = Solver.moveFrom(moves[m]);
+					int to = Solver.moveTo(moves[m]);
+					board.swap(from, to);
+					codec.canonicalize(board, canonical);
+					int j = Arrays.binarySearch(keys, region.key(canonical));
+					board.swap(from, to);
+					if (j < 0) {
+						throw new IllegalStateException(
+								"Move leaves the table.");
+					}
+					successors[i * suits + m] = j;
+				}
+			}
+		}
+
+		/**
+		 * Works back from the won position, one move at a time, to find the
+		 * distance of every position that can be won; the rest are left at
+		 * -1.
+		 *
+		 * @throws IllegalStateException if a distance will not fit in the file
+		 */
+		void solve() {
+			distances = new int[count];
+			Arrays.fill(distances, -1);
+			int ranks = shape.getRanks();
+			for (int r = 0; r < suits; r++) {
+				int start = r * columns;
+				for (int col = 0; col < ranks; col++) {
+					cells[start + col] = (short)shape.code(r + 1, col + 1);
+				}
+				cells[start + ranks] = BoardState.GAP;
+			}
+			distances[Arrays.binarySearch(keys, region.key(cells))] = 0;
+
+			boolean changed = true;
+			for (int distance = 0; changed; distance++) {
+				changed = false;
+				for (int i = 0; i < count; i++) {
+					if (distances[i] >= 0) {
+						continue;
+					}
+					for (int m = i * suits; m < (i + 1) * suits
+							&& successors[m] >= 0; m++) {
+						if (distances[successors[m]] == distance) {
+							if (distance + 1 >= NO_WIN) {
+								throw new IllegalStateException(
+										"Win too far away to store.");
+							}
+							distances[i] = distance + 1;
+							changed = true;
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+
+	//=========================================================================
+	// Helpers
+	//=========================================================================
+
+	/**
+	 * Reads the header of the file and maps it into memory, once. If the
+	 * file cannot be read, or is not a table, the table is left empty.
+	 */
+	private synchronized void load() {
+		if (loaded) {
+			return;
+		}
+		try {
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = in.getChannel();
+				long length = channel.size();
+				if (length >= HEADER && length <= Integer.MAX_VALUE) {
+					MappedByteBuffer map = channel.map(
+							FileChannel.MapMode.READ_ONLY, 0, length);
+					if (readHeader(map, length)) {
+						buffer = map;
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// no table, so every position is unknown
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Checks the header of a table file, and keeps what it says.
+	 *
+	 * @return true if the file holds a table this version can read
+	 */
+	private boolean readHeader(MappedByteBuffer map, long length) {
+		if (map.getInt(0) != MAGIC || map.getShort(4) != VERSION) {
+			return false;
+		}
+		int suits = map.get(6);
+		int ranks = map.get(7);
+		int cards = map.get(8);
+		int positions = map.getInt(12);
+		if (positions < 0
+				|| length != HEADER + (long)positions * 9) {
+			return false;
+		}
+		try {
+			shape = BoardShape.of(suits, ranks);
+			new Region(shape, cards);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		depth = cards;
+		count = positions;
+		values = HEADER + positions * 8;
+		return true;
+	}
+
+	/**
+	 * The keys of the positions a table covers. A region is not
+	 * thread-safe.
+	 */
+	private static final class Region {
+		private final BoardShape shape;
+		private final int depth;
+		private final int suits;
+		private final int ranks;
+		private final int columns;
+		// bits in the length of a run, and in what fills a slot
+		private final int lengthBits;
+		private final int itemBits;
+		private final int keyBits;
+
+		// scratch space
+		private final int[] lengths;
+		private final int[] first;
+		private final int[] rowOf;
+
+		/**
+		 * @throws IllegalArgumentException if the keys would not fit in a
+		 *  long
+		 */
+		Region(BoardShape shape, int depth) {
+			this.shape = shape;
+			this.depth = depth;
+			suits = shape.getSuits();
+			ranks = shape.getRanks();
+			columns = shape.getColumns();
+			lengthBits = 32 - Integer.numberOfLeadingZeros(ranks);
+			itemBits = 32 - Integer.numberOfLeadingZeros(depth);
+			keyBits = suits * lengthBits + (depth + suits) * itemBits;
+			if (depth < 0 || keyBits > 63) {
+				throw new IllegalArgumentException("No table of " + shape
+						+ " with " + depth + " cards out of place.");
+			}
+			lengths = new int[suits];
+			first = new int[suits];
+			rowOf = new int[suits + 1];
+		}
+
+		/**
+		 * Packs a position into its key. The cards after the runs are
+		 * numbered in the order of their rows, then of their face values,
+		 * starting at 1, with 0 for a blank space, and the slots after the
+		 * runs are padded to depth + suits, so every key is the same width.
+		 *
+		 * @param cells is a canonical layout, as written by
+		 *  CanonicalCodec.canonicalize
+		 * @return the key, or -1 if the table does not cover the position
+		 */
+		long key(short[] cells) {
+			int missing = 0;
+			for (int row = 0; row < suits; row++) {
+				int start = row * columns;
+				int ace = cells[start];
+				if (shape.numberOf(ace) != 1) {
+					return -1;
+				}
+				int length = 1;
+				while (length < ranks
+						&& cells[start + length] == ace + length) {
+					length++;
+				}
+				lengths[row] = length;
+				first[row] = missing;
+				rowOf[shape.suitOf(ace)] = row;
+				missing += ranks - length;
+			}
+			if (missing > depth) {
+				return -1;
+			}
+
+			long key = 0;
+			for (int row = 0; row < suits; row++) {
+				key = key << lengthBits | lengths[row];
+			}
+			for (int row = 0; row < suits; row++) {
+				for (int col = lengths[row]; col < columns; col++) {
+					int card = cells[row * columns + col];
+					int item = 0;
+					if (card != BoardState.GAP) {
+						int r = rowOf[shape.suitOf(card)];
+						item = first[r] + shape.numberOf(card) - lengths[r];
+					}
+					key = key << itemBits | item;
+				}
+			}
+			return key << (depth - missing) * itemBits;
+		}
+
+		/**
+		 * Unpacks a key into a layout that plays the same way as the
+		 * position it was packed from, with the suit of each row numbered
+		 * after the row.
+		 */
+		void cells(long key, short[] cells) {
+			int shift = keyBits;
+			int missing = 0;
+			for (int row = 0; row < suits; row++) {
+				shift -= lengthBits;
+				lengths[row] = (int)(key >>> shift) & ((1 << lengthBits) - 1);
+				first[row] = missing;
+				missing += ranks - lengths[row];
+			}
+			for (int row = 0; row < suits; row++) {
+				for (int col = 0; col < columns; col++) {
+					int slot = row * columns + col;
+					if (col < lengths[row]) {
+						cells[slot] = (short)shape.code(row + 1, col + 1);
+						continue;
+					}
+					shift -= itemBits;
+					int item = (int)(key >>> shift) & ((1 << itemBits) - 1);
+					cells[slot] = BoardState.GAP;
+					for (int r = 0; item > 0 && r < suits; r++) {
+						if (item <= first[r] + ranks - lengths[r]) {
+							cells[slot] = (short)shape.code(r + 1,
+									lengths[r] + item - first[r]);
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package game;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Estimates the chance of winning from the position being played, by
+ * playing it out many times in the background, as ShufflePlanner does,
+ * with shuffles drawn at random rather than from the deal ID. The
+ * estimate is of how often the strategy wins from here, greedy unless
+ * another is given, which is a guide to how hopeful the position is rather
+ * than a promise.
+ *
+ * estimate is called on the event thread after every change to the game.
+ * It cancels the estimate in progress and starts one for the new position,
+ * and the callback is then given a rough estimate every so often and the
+ * final one when it is done, always on the event thread. Final estimates
+ * are kept by the canonical key of the position and the number of shuffles
+ * remaining, so a position reached again, such as by undo, or one that
+ * only differs by the order of its rows or the naming of its suits, is
+ * answered at once.
+ *
+ * The play-outs run on a pool that leaves one core free for the event
+ * thread. On a single core they run on one thread of the lowest priority,
+ * which gives way after every small batch, and fewer of them are played.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class WinEstimator {
+	/**
+	 * The number of play-outs behind an estimate, when there is more than
+	 * one core.
+	 */
+	public static final int SAMPLES = 2000;
+	/**
+	 * The number of final estimates kept.
+	 */
+	public static final int CACHE_SIZE = 4096;
+
+	// play-outs are handed out in batches, and the callback is given a rough
+	// estimate at most this often
+	private static final int BATCH = 25;
+	private static final long UPDATE_NANOS = 100000000L;
+
+	/**
+	 * The chance of winning from a position, so far as it is known.
+	 */
+	public static final class Estimate {
+		private final long wins;
+		private final long samples;
+		private final boolean done;
+
+		private Estimate(long wins, long samples, boolean done) {
+			this.wins = wins;
+			this.samples = samples;
+			this.done = done;
+		}
+
+		/**
+		 * @return the fraction of play-outs won, 0-1
+		 */
+		public double getChance() {
+			return samples == 0 ? 0 : (double)wins / samples;
+		}
+
+		/**
+		 * @return the number of play-outs behind the estimate
+		 */
+		public long getSamples() {
+			return samples;
+		}
+
+		/**
+		 * @return true if this is the final estimate for its position
+		 */
+		public boolean isDone() {
+			return done;
+		}
+	}
+
+	// fields
+	private final Background.Callback<Estimate> callback;
+	private final Strategy strategy;
+	private final int threads;
+	private final int samples;
+	private final boolean yielding;
+	private final ExecutorService pool;
+	// changed by every estimate and every cancel, so workers can tell that
+	// the estimate they belong to is over
+	private final AtomicInteger generation = new AtomicInteger();
+
+	// only used on the event thread
+	private CanonicalCodec codec;
+	private boolean running;
+	private long runningKey;
+	private final Map<Long, Estimate> cache =
+			new LinkedHashMap<Long, Estimate>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(
+						Map.Entry<Long, Estimate> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			};
+
+	/**
+	 * Constructs an estimator that plays greedily, sized for the number of
+	 * cores.
+	 *
+	 * @param callback is given each estimate on the event thread
+	 */
+	public WinEstimator(Background.Callback<Estimate> callback) {
+		this(callback, Strategy.forName("greedy"),
+				Runtime.getRuntime().availableProcessors() - 1,
+				Runtime.getRuntime().availableProcessors() > 1 ? SAMPLES
+						: SAMPLES / 4);
+	}
+
+	/**
+	 * @param callback is given each estimate on the event thread
+	 * @param strategy picks the moves of each play-out; it is copied, never
+	 *  used directly
+	 * @param threads is the number of threads to play on; with fewer than
+	 *  two, play-outs run on one thread that gives way to others often
+	 * @param samples is the number of play-outs behind a final estimate
+	 */
+	public WinEstimator(Background.Callback<Estimate> callback,
+			Strategy strategy, int threads, int samples) {
+		this.callback = callback;
+		this.strategy = strategy;
+		this.threads = Math.max(1, threads);
+		this.samples = samples;
+		yielding = threads < 2;
+		pool = Executors.newFixedThreadPool(this.threads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Estimator");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Starts estimating the chance of winning from a position, cancelling
+	 * the estimate in progress, unless that is for the same position. A
+	 * position already estimated is given to the callback at once. Called
+	 * from another thread, the work is handed to the event thread.
+	 *
+	 * @param board is the position to estimate; it is copied, not kept
+	 * @param shuffles is the number of shuffles remaining
+	 */
+	public void estimate(BoardState board, final int shuffles) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			final BoardState copy = new BoardState(board);
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					estimate(copy, shuffles);
+				}
+			});
+			return;
+		}
+		if (codec == null || !codec.getShape().equals(board.getShape())) {
+			codec = new CanonicalCodec(board.getShape());
+			cache.clear();
+		}
+		long key = SplitMix.streamSeed(codec.hash(board), shuffles);
+		if (running && key == runningKey) {
+			return;
+		}
+		Estimate known = cache.get(key);
+		if (known != null) {
+			cancel();
+			callback.done(known, null);
+			return;
+		}
+
+		Task task = new Task(generation.incrementAndGet(), key,
+				new BoardState(board), shuffles);
+		running = true;
+		runningKey = key;
+		for (int i = 0; i < threads; i++) {
+			pool.execute(task);
+		}
+	}
+
+	/**
+	 * Stops the estimate in progress, if there is one; the callback is not
+	 * given anything more for it. Must be called on the event thread.
+	 */
+	public void cancel() {
+		generation.incrementAndGet();
+		running = false;
+	}
+
+	/**
+	 * @return the number of final estimates kept
+	 */
+	public int getCacheSize() {
+		return cache.size();
+	}
+
+	/**
+	 * The play-outs of a single estimate, shared by every thread that works
+	 * on it. Each play-out is numbered, and draws from the stream of the
+	 * key with that number, so the estimate of a position is always the
+	 * same, however many threads play it.
+	 */
+	private class Task implements Runnable {
+		private final int id;
+		private final long key;
+		private final BoardState start;
+		private final int shuffles;
+		private final AtomicLong claimed = new AtomicLong();
+		private final AtomicLong finished = new AtomicLong();
+		private final AtomicLong wins = new AtomicLong();
+		private final AtomicLong lastUpdate =
+				new AtomicLong(System.nanoTime());
+
+		Task(int id, long key, BoardState start, int shuffles) {
+			this.id = id;
+			this.key = key;
+			this.start = start;
+			this.shuffles = shuffles;
+		}
+
+		public void run() {
+			try {
+				play();
+			} catch (RuntimeException e) {
+				post(null, e);
+			}
+		}
+
+		/**
+		 * Plays batches until every play-out has been claimed or the
+		 * estimate is over.
+		 */
+		private void play() {
+			BoardShape shape = start.getShape();
+			BoardState board = new BoardState(shape);
+			Strategy player = strategy.newInstance();
+			int[] moves = new int[MoveGenerator.maxMoves(shape)];
+			SplitMix rnd = new SplitMix(0);
+			while (generation.get() == id) {
+				long first = claimed.getAndAdd(BATCH);
+				if (first >= samples) {
+					return;
+				}
+				long last = Math.min(first + BATCH, samples);
+				long won = 0;
+				for (long n = first; n < last; n++) {
+					board.copyFrom(start);
+					rnd.setSeed(SplitMix.streamSeed(key, n));
+					ShufflePlanner.playOut(board, shuffles, player, moves,
+							rnd);
+					won += board.isWon() ? 1 : 0;
+				}
+				// wins are counted before play-outs, so every win is in by the
+				// time the last play-out is
+				wins.addAndGet(won);
+				long done = finished.addAndGet(last - first);
+				long now = System.nanoTime();
+				long update = lastUpdate.get();
+				if (done == samples) {
+					post(new Estimate(wins.get(), done, true), null);
+				} else if (now - update > UPDATE_NANOS
+						&& lastUpdate.compareAndSet(update, now)) {
+					post(new Estimate(wins.get(), done, false), null);
+				}
+				if (yielding) {
+					Thread.yield();
+				}
+			}
+		}
+
+		/**
+		 * Hands an estimate or an error to the callback on the event thread,
+		 * unless the estimate has been cancelled or finished by then.
+		 */
+		private void post(final Estimate estimate, final Exception error) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					if (generation.get() != id || !running) {
+						return;
+					}
+					if (error != null || estimate.isDone()) {
+						running = false;
+					}
+					if (estimate != null && estimate.isDone()) {
+						cache.put(key, estimate);
+					}
+					callback.done(estimate, error);
+				}
+			});
+		}
+	}
+}
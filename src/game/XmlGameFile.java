@@ -0,0 +1,305 @@
+package game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Reads and writes saved games in the xml format, for import and export:
+ *
+ *   &lt;Game&gt;
+ *     &lt;Shuffle&gt;2&lt;/Shuffle&gt;
+ *     &lt;Deal&gt;0123456789ABCDEF&lt;/Deal&gt;, which older files do not have
+ *     &lt;Size&gt;8x26&lt;/Size&gt;, only for a board other than 4x13
+ *     &lt;Card id="0"&gt;
+ *       &lt;Suit&gt;1&lt;/Suit&gt;&lt;Value&gt;1&lt;/Value&gt;
+ *     &lt;/Card&gt;
+ *     ... a card for every slot, 56 on the standard board, with suit 0
+ *     and value one more than the highest card, 14 on the standard board,
+ *     for a blank space
+ *   &lt;/Game&gt;
+ *
+ * Files are streamed in a single pass, checking each card as it is read,
+ * without building a document in memory. The factories are created once
+ * and shared, since creating them is slower than reading a whole file.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class XmlGameFile {
+	private static final XMLInputFactory INPUT = XMLInputFactory.newInstance();
+	private static final XMLOutputFactory OUTPUT =
+			XMLOutputFactory.newInstance();
+	static {
+		// save files never need a DTD, and must not be able to read other
+		// files through external entities
+		INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		INPUT.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+				Boolean.FALSE);
+	}
+
+	/**
+	 * Not used; every method is static.
+	 */
+	private XmlGameFile() {
+	}
+
+	//=========================================================================
+	// Writing
+	//=========================================================================
+
+	/**
+	 * Writes a game to a file, replacing anything the file held before.
+	 *
+	 * @param file is the file to write
+	 * @param board is the position of the game
+	 * @param shufflesRemaining is the number of shuffles left
+	 * @param dealId is the ID of the deal being played
+	 * @throws IOException if the file could not be written
+	 */
+	public static void write(File file, BoardState board,
+			int shufflesRemaining, long dealId) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			write(out, board, shufflesRemaining, dealId);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a game to a stream, which is left open.
+	 *
+	 * @param out is the stream to write
+	 * @param board is the position of the game
+	 * @param shufflesRemaining is the number of shuffles left
+	 * @param dealId is the ID of the deal being played
+	 * @throws IOException if the stream could not be written
+	 */
+	public static void write(OutputStream out, BoardState board,
+			int shufflesRemaining, long dealId) throws IOException {
+		try {
+			XMLStreamWriter xml = OUTPUT.createXMLStreamWriter(out, "UTF-8");
+			xml.writeStartDocument("UTF-8", "1.0");
+			xml.writeCharacters("\n");
+			xml.writeStartElement("Game");
+			xml.writeCharacters("\n  ");
+			writeNumber(xml, "Shuffle", shufflesRemaining);
+			xml.writeCharacters("\n  ");
+			xml.writeStartElement("Deal");
+			xml.writeCharacters(Deal.format(dealId));
+			xml.writeEndElement();
+			BoardShape shape = board.getShape();
+			if (!shape.isStandard()) {
+				xml.writeCharacters("\n  ");
+				xml.writeStartElement("Size");
+				xml.writeCharacters(shape.toString());
+				xml.writeEndElement();
+			}
+			for (int i = 0; i < shape.getSlots(); i++) {
+				xml.writeCharacters("\n  ");
+				xml.writeStartElement("Card");
+				xml.writeAttribute("id", Integer.toString(i));
+				xml.writeCharacters("\n    ");
+				writeNumber(xml, "Suit", board.getSuit(i));
+				xml.writeCharacters("\n    ");
+				writeNumber(xml, "Value", board.getNumber(i));
+				xml.writeCharacters("\n  ");
+				xml.writeEndElement();
+			}
+			xml.writeCharacters("\n");
+			xml.writeEndElement();
+			xml.writeCharacters("\n");
+			xml.writeEndDocument();
+			xml.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+	//=========================================================================
+	// Reading
+	//=========================================================================
+
+	/**
+	 * Reads a game from a file.
+	 *
+	 * @param file is the file to read
+	 * @return the game, with no undo journal
+	 * @throws IOException if the file could not be read or is not valid
+	 */
+	public static GameFile read(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return read(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a game from a stream, which is left open.
+	 *
+	 * @param in is the stream to read
+	 * @return the game, with no undo journal
+	 * @throws IOException if the stream could not be read or is not valid
+	 */
+	public static GameFile read(InputStream in) throws IOException {
+		BoardShape shape = BoardShape.STANDARD;
+		short[] cells = new short[shape.getSlots()];
+		int shuffles = -1;
+		int cards = 0;
+		long dealId = 0;
+		boolean hasDealId = false;
+		try {
+			XMLStreamReader xml = INPUT.createXMLStreamReader(in);
+			try {
+				xml.nextTag();
+				xml.require(XMLStreamConstants.START_ELEMENT, null, "Game");
+				while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+					String name = xml.getLocalName();
+					if (name.equals("Shuffle")) {
+						shuffles = readNumber(xml, 0, Solver.MAX_SHUFFLES);
+					} else if (name.equals("Deal")) {
+						try {
+							dealId = Deal.parse(xml.getElementText());
+						} catch (NumberFormatException e) {
+							throw new IOException("Invalid deal number.", e);
+						}
+						hasDealId = true;
+					} else if (name.equals("Size")) {
+						// the cards are checked against the size as they are
+						// read, so it must come first
+						if (cards > 0) {
+							throw new IOException("Invalid xml game file.");
+						}
+						try {
+							shape = BoardShape.parse(xml.getElementText());
+						} catch (IllegalArgumentException e) {
+							throw new IOException("Invalid board size.", e);
+						}
+						cells = new short[shape.getSlots()];
+					} else if (name.equals("Card")) {
+						if (cards == cells.length) {
+							throw new IOException(
+									"Invalid number of cards in xml file.");
+						}
+						if (parse(xml.getAttributeValue(null, "id")) != cards) {
+							throw new IOException("Invalid xml game file.");
+						}
+						cells[cards++] = (short)readCard(xml, shape);
+					} else {
+						throw new IOException("Unexpected element " + name
+								+ " in xml file.");
+					}
+				}
+			} finally {
+				xml.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+		if (cards != cells.length) {
+			throw new IOException("Invalid number of cards in xml file.");
+		}
+		if (shuffles < 0) {
+			throw new IOException("Missing Shuffle element in xml file.");
+		}
+
+		BoardState board = new BoardState(shape);
+		try {
+			// rejects any layout that is not a full deck
+			board.setCells(cells);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid board in xml file.", e);
+		}
+		GameFile game = new GameFile(board, shuffles, shuffles, null);
+		if (hasDealId) {
+			game.setDealId(dealId);
+		}
+		return game;
+	}
+
+	//=========================================================================
+	// Helpers
+	//=========================================================================
+
+	/**
+	 * Writes an element holding only a number.
+	 */
+	private static void writeNumber(XMLStreamWriter xml, String name,
+			int value) throws XMLStreamException {
+		xml.writeStartElement(name);
+		xml.writeCharacters(Integer.toString(value));
+		xml.writeEndElement();
+	}
+
+	/**
+	 * Reads the Suit and Value of a Card element, leaving the reader at its
+	 * end tag.
+	 *
+	 * @return the cell value of the card
+	 */
+	private static int readCard(XMLStreamReader xml, BoardShape shape)
+			throws XMLStreamException, IOException {
+		int suit = -1;
+		int value = -1;
+		while (xml.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = xml.getLocalName();
+			if (name.equals("Suit")) {
+				suit = readNumber(xml, 0, shape.getSuits());
+			} else if (name.equals("Value")) {
+				value = readNumber(xml, 1, shape.getGapNumber());
+			} else {
+				throw new IOException("Unexpected element " + name
+						+ " in xml file.");
+			}
+		}
+		if (suit == 0 && value == shape.getGapNumber()) {
+			return BoardState.GAP;
+		}
+		if (suit < 1 || value < 1 || value > shape.getRanks()) {
+			throw new IOException("Invalid card in xml file.");
+		}
+		return shape.code(suit, value);
+	}
+
+	/**
+	 * Reads the text of an element as a number, leaving the reader at its
+	 * end tag.
+	 */
+	private static int readNumber(XMLStreamReader xml, int min, int max)
+			throws XMLStreamException, IOException {
+		int value = parse(xml.getElementText());
+		if (value < min || value > max) {
+			throw new IOException("Number out of range in xml file.");
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a number, reporting a bad one as an IOException.
+	 */
+	private static int parse(String text) throws IOException {
+		if (text == null) {
+			throw new IOException("Missing number in xml file.");
+		}
+		try {
+			return Integer.parseInt(text.trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number in xml file.", e);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package game;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Checks that Autosave gives back the game it was given, and turns away a
+ * file whose shuffles it could not play. A failed check throws an
+ * AssertionError naming it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class AutosaveTest {
+	// where the number of shuffles the game started with is in the file
+	private static final int START_SHUFFLES = 13;
+
+	/**
+	 * Runs every check, printing a line for each.
+	 *
+	 * @param args is ignored
+	 * @throws Exception if a check could not be run
+	 */
+	public static void main(String[] args) throws Exception {
+		Random rnd = new Random(1);
+		BoardState board = new BoardState();
+		board.deal(rnd);
+		MoveJournal journal = new MoveJournal();
+		journal.reset(board);
+		short[] before = new short[board.getShape().getSlots()];
+		board.getCells(before);
+		board.shuffle(rnd);
+		journal.recordShuffle(before, board);
+		journal.recordSwap(0, 1);
+		board.swap(0, 1);
+
+		File file = File.createTempFile("carpet", ".journal");
+		try {
+			save(file, journal, 2);
+			GameFile game = new Autosave(file).recover();
+			check("recovers", game != null
+					&& game.getShufflesRemaining() == 1
+					&& game.getStartShuffles() == 2
+					&& game.getJournal().getSize() == 2);
+
+			setStartShuffles(file, 1);
+			game = new Autosave(file).recover();
+			check("every shuffle used",
+					game != null && game.getShufflesRemaining() == 0);
+
+			setStartShuffles(file, 0);
+			check("more shuffles than at the start",
+					new Autosave(file).recover() == null);
+			setStartShuffles(file, -1);
+			check("negative start", new Autosave(file).recover() == null);
+			setStartShuffles(file, Solver.MAX_SHUFFLES + 1);
+			check("more than the solver can take",
+					new Autosave(file).recover() == null);
+
+			// an undone shuffle still counts against the start
+			journal.undo(board);
+			journal.undo(board);
+			save(file, journal, 0);
+			check("undone shuffle", new Autosave(file).recover() == null);
+			save(file, journal, 1);
+			game = new Autosave(file).recover();
+			check("undone shuffle within the start", game != null
+					&& game.getShufflesRemaining() == 1
+					&& game.getJournal().canRedo());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Starts the file again with a game, and waits for it to be written.
+	 */
+	private static void save(File file, MoveJournal journal,
+			int startShuffles) {
+		Autosave autosave = new Autosave(file);
+		autosave.open();
+		autosave.start(journal, 1, startShuffles);
+		autosave.close();
+	}
+
+	/**
+	 * Overwrites the number of shuffles the game in the file started with,
+	 * as a hand-edited file might.
+	 */
+	private static void setStartShuffles(File file, int startShuffles)
+			throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.seek(START_SHUFFLES);
+			out.write(startShuffles);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void check(String name, boolean passed) {
+		if (!passed) {
+			throw new AssertionError(name);
+		}
+		System.out.println("ok  " + name);
+	}
+}
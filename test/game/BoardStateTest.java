@@ -0,0 +1,152 @@
+package game;
+
+import java.util.Random;
+
+/**
+ * Checks that what BoardState keeps up to date on every change, its hash,
+ * its live blank spaces, the ordered runs at the start of its rows and the
+ * cards in their final column, always matches what is found by looking at
+ * every slot again. A failed check throws an AssertionError naming it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class BoardStateTest {
+	// changes made to each board
+	private static final int STEPS = 20000;
+
+	/**
+	 * Runs every check, printing a line for each.
+	 *
+	 * @param args is ignored
+	 */
+	public static void main(String[] args) {
+		BoardShape[] shapes = { BoardShape.STANDARD, BoardShape.of(8, 26),
+				BoardShape.of(1, 2) };
+		for (BoardShape shape : shapes) {
+			check(shape, new Random(shape.getSlots()));
+			System.out.println("ok  " + shape + " after " + STEPS
+					+ " changes");
+		}
+	}
+
+	/**
+	 * Makes random changes to a board, checking it after each one. Half of
+	 * them are legal moves, so that runs are built as well as broken.
+	 */
+	private static void check(BoardShape shape, Random rnd) {
+		BoardState board = new BoardState(shape);
+		int slots = shape.getSlots();
+		int[] moves = new int[MoveGenerator.maxMoves(shape)];
+		verify(board, "solved");
+		board.deal(rnd);
+		verify(board, "deal");
+		for (int step = 0; step < STEPS; step++) {
+			int choice = rnd.nextInt(100);
+			String name;
+			if (choice < 50) {
+				int count = MoveGenerator.generate(board, moves);
+				if (count == 0) {
+					continue;
+				}
+				int move = moves[rnd.nextInt(count)];
+				board.swap(Solver.moveFrom(move), Solver.moveTo(move));
+				name = "move";
+			} else if (choice < 98) {
+				int a = rnd.nextInt(slots);
+				int b = rnd.nextInt(slots);
+				board.swap(a, b);
+				name = "swap " + a + " " + b;
+			} else {
+				board.shuffle(rnd);
+				name = "shuffle";
+			}
+			verify(board, name + " at step " + step);
+		}
+	}
+
+	/**
+	 * Works out everything the board keeps from its cells alone, and
+	 * compares.
+	 */
+	private static void verify(BoardState board, String name) {
+		BoardShape shape = board.getShape();
+		int suits = shape.getSuits();
+		int ranks = shape.getRanks();
+		int columns = shape.getColumns();
+		int codes = shape.getCodes();
+		long[] zobrist = shape.getZobrist();
+
+		long hash = 0;
+		int live = 0;
+		int correct = 0;
+		for (int slot = 0; slot < shape.getSlots(); slot++) {
+			int code = board.get(slot);
+			hash ^= zobrist[slot * codes + code];
+			if (board.getNumber(slot) - 1 == slot % columns) {
+				correct++;
+			}
+			if (code == BoardState.GAP) {
+				if (slot % columns == 0 || (!board.isGap(slot - 1)
+						&& board.getNumber(slot - 1) != ranks)) {
+					live++;
+				}
+			} else if (board.slotOfCode(code) != slot) {
+				fail(name, "slot of card " + code);
+			}
+		}
+		int lockedTotal = 0;
+		for (int row = 0; row < suits; row++) {
+			int start = row * columns;
+			int length = 0;
+			if (board.getNumber(start) == 1) {
+				int suit = board.getSuit(start);
+				while (length < ranks && board.getSuit(start + length) == suit
+						&& board.getNumber(start + length) == length + 1) {
+					length++;
+				}
+			}
+			if (board.lockedLength(row) != length) {
+				fail(name, "run of row " + row);
+			}
+			lockedTotal += length;
+		}
+		for (int i = 0; i < suits; i++) {
+			if (!board.isGap(board.gapSlot(i))) {
+				fail(name, "blank space " + i);
+			}
+		}
+
+		if (board.getHash() != hash) {
+			fail(name, "hash");
+		}
+		if (board.getLiveGaps() != live) {
+			fail(name, "live blank spaces");
+		}
+		if (board.countLocked() != lockedTotal) {
+			fail(name, "cards in runs");
+		}
+		if (board.isWon() != (lockedTotal == suits * ranks)) {
+			fail(name, "won");
+		}
+		if (board.countCorrect() != correct) {
+			fail(name, "cards in their column");
+		}
+
+		// a board built from the same cells all at once must agree
+		short[] cells = new short[shape.getSlots()];
+		board.getCells(cells);
+		BoardState fresh = new BoardState(shape);
+		fresh.setCells(cells);
+		if (fresh.getHash() != board.getHash()
+				|| fresh.getLiveGaps() != board.getLiveGaps()
+				|| fresh.countLocked() != board.countLocked()
+				|| fresh.countCorrect() != board.countCorrect()) {
+			fail(name, "rebuilt board");
+		}
+	}
+
+	private static void fail(String name, String what) {
+		throw new AssertionError(what + " wrong after " + name);
+	}
+}
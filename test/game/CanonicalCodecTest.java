@@ -0,0 +1,156 @@
+package game;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that CanonicalCodec gives a board the same key however its rows
+ * are ordered and its suits are named, that boards which cannot be
+ * equivalent get different keys, and that a key decodes to a board with
+ * that key. A failed check throws an AssertionError naming it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class CanonicalCodecTest {
+	// boards checked of each kind
+	private static final int TRIALS = 2000;
+
+	/**
+	 * Runs every check, printing a line for each.
+	 *
+	 * @param args is ignored
+	 */
+	public static void main(String[] args) {
+		Random rnd = new Random(22);
+		BoardShape shape = BoardShape.STANDARD;
+		CanonicalCodec codec = new CanonicalCodec(shape);
+		BoardState board = new BoardState(shape);
+		int[] moves = new int[MoveGenerator.maxMoves(shape)];
+
+		for (int trial = 0; trial < TRIALS; trial++) {
+			board.deal(rnd);
+			checkBoard(codec, board, rnd);
+		}
+		System.out.println("ok  dealt boards");
+
+		// boards a few moves from a win, whose rows tie far more often
+		for (int trial = 0; trial < TRIALS; trial++) {
+			board = new BoardState(shape);
+			int steps = rnd.nextInt(12);
+			for (int i = 0; i < steps; i++) {
+				int a = rnd.nextInt(shape.getSlots());
+				board.swap(a, board.gapSlot(rnd.nextInt(shape.getSuits())));
+				int count = MoveGenerator.generate(board, moves);
+				if (count > 0) {
+					int move = moves[rnd.nextInt(count)];
+					board.swap(Solver.moveFrom(move), Solver.moveTo(move));
+				}
+			}
+			checkBoard(codec, board, rnd);
+		}
+		System.out.println("ok  boards near a win");
+	}
+
+	/**
+	 * Checks the key of a board against that of an equivalent board, one
+	 * that cannot be equivalent, and the board its key decodes to.
+	 */
+	private static void checkBoard(CanonicalCodec codec, BoardState board,
+			Random rnd) {
+		int length = codec.getLength();
+		long[] key = new long[length];
+		long[] other = new long[length];
+		codec.encode(board, key);
+
+		BoardState permuted = permute(board, rnd);
+		codec.encode(permuted, other);
+		if (!Arrays.equals(key, other)
+				|| codec.hash(board) != codec.hash(permuted)) {
+			throw new AssertionError("permuted board has another key");
+		}
+
+		BoardState decoded = new BoardState(board.getShape());
+		codec.decode(key, decoded);
+		codec.encode(decoded, other);
+		if (!Arrays.equals(key, other)) {
+			throw new AssertionError("decoded board has another key");
+		}
+		short[] canonical = new short[board.getShape().getSlots()];
+		short[] cells = new short[canonical.length];
+		codec.canonicalize(board, canonical);
+		decoded.getCells(cells);
+		if (!Arrays.equals(canonical, cells)) {
+			throw new AssertionError("canonical layout is not the decoded one");
+		}
+
+		// the face values of the rows, in any order, are the same for every
+		// equivalent board, so a board where they differ must get another key
+		BoardState changed = new BoardState(board);
+		changed.swap(rnd.nextInt(canonical.length),
+				rnd.nextInt(canonical.length));
+		if (!Arrays.equals(faces(board), faces(changed))) {
+			codec.encode(changed, other);
+			if (Arrays.equals(key, other)) {
+				throw new AssertionError("different boards share a key");
+			}
+		}
+	}
+
+	/**
+	 * @return an equivalent board, with its rows in a random order and its
+	 *         suits renamed at random
+	 */
+	private static BoardState permute(BoardState board, Random rnd) {
+		BoardShape shape = board.getShape();
+		int suits = shape.getSuits();
+		int columns = shape.getColumns();
+		int[] rows = shuffled(suits, rnd);
+		int[] names = shuffled(suits, rnd);
+		short[] cells = new short[shape.getSlots()];
+		for (int slot = 0; slot < cells.length; slot++) {
+			int to = rows[slot / columns] * columns + slot % columns;
+			cells[to] = board.isGap(slot) ? BoardState.GAP
+					: (short)shape.code(names[board.getSuit(slot) - 1] + 1,
+							board.getNumber(slot));
+		}
+		BoardState permuted = new BoardState(shape);
+		permuted.setCells(cells);
+		return permuted;
+	}
+
+	/**
+	 * @return 0 to n - 1 in a random order
+	 */
+	private static int[] shuffled(int n, Random rnd) {
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		for (int i = n; i > 1; i--) {
+			int j = rnd.nextInt(i);
+			int tmp = order[i - 1];
+			order[i - 1] = order[j];
+			order[j] = tmp;
+		}
+		return order;
+	}
+
+	/**
+	 * @return the face values of each row as a string, sorted
+	 */
+	private static String[] faces(BoardState board) {
+		BoardShape shape = board.getShape();
+		int columns = shape.getColumns();
+		String[] rows = new String[shape.getSuits()];
+		for (int row = 0; row < rows.length; row++) {
+			StringBuilder text = new StringBuilder();
+			for (int col = 0; col < columns; col++) {
+				text.append(board.getNumber(row * columns + col)).append(',');
+			}
+			rows[row] = text.toString();
+		}
+		Arrays.sort(rows);
+		return rows;
+	}
+}
@@ -0,0 +1,127 @@
+package game;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Checks that GameFile turns away records it cannot play, rather than
+ * loading them and failing later. A failed check throws an AssertionError
+ * naming it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class GameFileTest {
+	// where the shuffle counts are in a record
+	private static final int SHUFFLES_REMAINING = 12;
+	private static final int START_SHUFFLES = 13;
+
+	/**
+	 * Runs every check, printing a line for each.
+	 *
+	 * @param args is ignored
+	 * @throws Exception if a check could not be run
+	 */
+	public static void main(String[] args) throws Exception {
+		BoardState board = new BoardState();
+		board.deal(new Random(1));
+
+		check("round trip", decodes(record(board, 2, 2)));
+		check("fewer remaining than at the start",
+				decodes(record(board, 1, 2)));
+		check("negative remaining", !decodes(withShuffles(board, -1, 2)));
+		check("more than the solver can take", !decodes(withShuffles(board,
+				Solver.MAX_SHUFFLES + 1, Solver.MAX_SHUFFLES + 1)));
+		check("most a byte can hold", !decodes(withShuffles(board,
+				Byte.MAX_VALUE, Byte.MAX_VALUE)));
+		check("more remaining than at the start",
+				!decodes(withShuffles(board, 2, 1)));
+
+		// a game whose journal holds a shuffle
+		BoardState shuffled = new BoardState(board);
+		MoveJournal journal = new MoveJournal();
+		journal.reset(shuffled);
+		short[] before = new short[shuffled.getShape().getSlots()];
+		shuffled.getCells(before);
+		shuffled.shuffle(new Random(2));
+		journal.recordShuffle(before, shuffled);
+		check("journal with a shuffle",
+				decodes(record(shuffled, 1, 2, journal)));
+		check("journal with more shuffles than were used",
+				!decodes(record(shuffled, 2, 2, journal)));
+		check("journal with more shuffles than at the start",
+				!decodes(record(shuffled, 0, 0, journal)));
+		journal.undo(shuffled);
+		check("journal with an undone shuffle",
+				decodes(record(shuffled, 2, 2, journal)));
+		check("journal with an undone shuffle too many",
+				!decodes(record(shuffled, 0, 0, journal)));
+
+		// a file that was just read can be written again at once
+		File file = File.createTempFile("carpet", ".carpet");
+		try {
+			new GameFile(board, 2, 2, null).write(file);
+			GameFile.read(file);
+			new GameFile(board, 1, 2, null).write(file);
+			check("rewrite after read",
+					GameFile.read(file).getShufflesRemaining() == 1);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return a record of a game, encoded the usual way
+	 */
+	private static ByteBuffer record(BoardState board, int remaining,
+			int start) {
+		return record(board, remaining, start, null);
+	}
+
+	/**
+	 * @return a record of a game with a journal, encoded the usual way
+	 */
+	private static ByteBuffer record(BoardState board, int remaining,
+			int start, MoveJournal journal) {
+		return new GameFile(board, remaining, start, journal).encode();
+	}
+
+	/**
+	 * @return a record with its shuffle counts overwritten, and its
+	 *         checksum made to match, as a hand-edited file might be
+	 */
+	private static ByteBuffer withShuffles(BoardState board, int remaining,
+			int start) {
+		ByteBuffer buffer = record(board, 0, 0);
+		byte[] bytes = buffer.array();
+		bytes[SHUFFLES_REMAINING] = (byte)remaining;
+		bytes[START_SHUFFLES] = (byte)start;
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		buffer.putInt(bytes.length - 4, (int)crc.getValue());
+		return buffer;
+	}
+
+	/**
+	 * @return true if the record decodes, false if it is turned away with
+	 *         an IOException; anything else is let through
+	 */
+	private static boolean decodes(ByteBuffer buffer) {
+		try {
+			GameFile.decode(buffer);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void check(String name, boolean passed) {
+		if (!passed) {
+			throw new AssertionError(name);
+		}
+		System.out.println("ok  " + name);
+	}
+}
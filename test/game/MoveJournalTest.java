@@ -0,0 +1,149 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that MoveJournal gives back every position it has recorded, by
+ * undo, redo and jumpTo, over several keyframes, and that recording after
+ * an undo drops exactly the entries that were undone. A failed check
+ * throws an AssertionError naming it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class MoveJournalTest {
+	// entries recorded, enough to span several keyframes
+	private static final int ENTRIES = MoveJournal.KEYFRAME_INTERVAL * 3 + 10;
+
+	/**
+	 * Runs every check, printing a line for each.
+	 *
+	 * @param args is ignored
+	 */
+	public static void main(String[] args) {
+		Random rnd = new Random(7);
+		BoardState board = new BoardState();
+		board.deal(rnd);
+		MoveJournal journal = new MoveJournal();
+		journal.reset(board);
+		// the cells after each number of entries, from 0 for the start
+		List<short[]> positions = new ArrayList<short[]>();
+		positions.add(cellsOf(board));
+		List<Integer> kinds = new ArrayList<Integer>();
+		for (int i = 0; i < ENTRIES; i++) {
+			kinds.add(record(journal, board, rnd, i % 40 == 39));
+			positions.add(cellsOf(board));
+		}
+		check("size", journal.getSize() == ENTRIES
+				&& journal.getCurrent() == ENTRIES && !journal.canRedo());
+		check("shuffles", journal.countShuffles() == ENTRIES / 40);
+
+		for (int i = ENTRIES; i > 0; i--) {
+			if (journal.undo(board) != kinds.get(i - 1)
+					|| !Arrays.equals(cellsOf(board), positions.get(i - 1))) {
+				throw new AssertionError("undo to " + (i - 1));
+			}
+		}
+		check("undo everything", journal.undo(board) == -1
+				&& !journal.canUndo() && journal.countShuffles() == 0);
+
+		for (int i = 0; i < ENTRIES; i++) {
+			if (journal.redo(board) != kinds.get(i)
+					|| !Arrays.equals(cellsOf(board), positions.get(i + 1))) {
+				throw new AssertionError("redo to " + (i + 1));
+			}
+		}
+		check("redo everything", journal.redo(board) == -1);
+
+		// every position, reached out of order, from a board that holds
+		// some other layout
+		for (int n = 0; n <= ENTRIES; n++) {
+			int index = n * 37 % (ENTRIES + 1);
+			board.shuffle(rnd);
+			journal.jumpTo(board, index);
+			if (journal.getCurrent() != index
+					|| !Arrays.equals(cellsOf(board), positions.get(index))) {
+				throw new AssertionError("jump to " + index);
+			}
+		}
+		check("jump to every position", true);
+
+		// recording just past a keyframe, after undoing across two of them,
+		// drops every entry after it and the keyframes that went with them
+		int keep = MoveJournal.KEYFRAME_INTERVAL + 3;
+		journal.jumpTo(board, ENTRIES);
+		while (journal.getCurrent() > keep) {
+			journal.undo(board);
+		}
+		for (int i = keep; i < ENTRIES; i++) {
+			positions.remove(positions.size() - 1);
+			kinds.remove(kinds.size() - 1);
+		}
+		for (int i = keep; i < ENTRIES; i++) {
+			kinds.add(record(journal, board, rnd, i % 25 == 0));
+			positions.add(cellsOf(board));
+		}
+		check("size after recording over undone entries",
+				journal.getSize() == ENTRIES && !journal.canRedo());
+		for (int index = ENTRIES; index >= 0; index--) {
+			journal.jumpTo(board, index);
+			if (!Arrays.equals(cellsOf(board), positions.get(index))) {
+				throw new AssertionError("jump after truncating to " + index);
+			}
+		}
+		for (int i = 0; i < ENTRIES; i++) {
+			if (journal.redo(board) != kinds.get(i)) {
+				throw new AssertionError("redo after truncating " + i);
+			}
+		}
+		check("positions after recording over undone entries",
+				Arrays.equals(cellsOf(board), positions.get(ENTRIES)));
+
+		// a copy is a journal of its own
+		MoveJournal copy = new MoveJournal(journal);
+		journal.jumpTo(board, 0);
+		board.swap(0, 1);
+		journal.recordSwap(0, 1);
+		BoardState other = new BoardState(board);
+		copy.jumpTo(other, ENTRIES);
+		check("copy", copy.getSize() == ENTRIES && journal.getSize() == 1
+				&& Arrays.equals(cellsOf(other), positions.get(ENTRIES)));
+	}
+
+	/**
+	 * Makes a random change to the board and records it.
+	 *
+	 * @return the kind of entry recorded
+	 */
+	private static int record(MoveJournal journal, BoardState board,
+			Random rnd, boolean shuffle) {
+		if (shuffle) {
+			short[] before = cellsOf(board);
+			board.shuffle(rnd);
+			journal.recordShuffle(before, board);
+			return MoveJournal.SHUFFLE;
+		}
+		int slots = board.getShape().getSlots();
+		int a = rnd.nextInt(slots);
+		int b = rnd.nextInt(slots);
+		board.swap(a, b);
+		journal.recordSwap(a, b);
+		return MoveJournal.SWAP;
+	}
+
+	private static short[] cellsOf(BoardState board) {
+		short[] cells = new short[board.getShape().getSlots()];
+		board.getCells(cells);
+		return cells;
+	}
+
+	private static void check(String name, boolean passed) {
+		if (!passed) {
+			throw new AssertionError(name);
+		}
+		System.out.println("ok  " + name);
+	}
+}
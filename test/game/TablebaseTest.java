@@ -0,0 +1,141 @@
+package game;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Builds a small Tablebase and checks it: the won position is 0 moves
+ * away, every position it covers is one move further than its best next
+ * position, or lost if none can be won, and equivalent positions look up
+ * the same. A failed check throws an AssertionError naming it.
+ *
+ * @author Stephen Belden
+ * @version 4.2.0
+ */
+public class TablebaseTest {
+	// positions looked up
+	private static final int TRIALS = 5000;
+
+	/**
+	 * Runs every check, printing a line for each.
+	 *
+	 * @param args is ignored
+	 * @throws Exception if the table could not be built
+	 */
+	public static void main(String[] args) throws Exception {
+		BoardShape shape = BoardShape.of(3, 5);
+		int depth = 3;
+		File file = File.createTempFile("carpet", ".tb");
+		try {
+			int size = Tablebase.build(file, shape, depth);
+			Tablebase table = new Tablebase(file);
+			check("header", table.isAvailable()
+					&& shape.equals(table.getShape())
+					&& table.getDepth() == depth && table.getSize() == size
+					&& size > 0);
+			Tablebase.Probe probe = table.newProbe();
+			check("won position", probe.lookup(new BoardState(shape)) == 0);
+			check("another size", probe.lookup(new BoardState())
+					== Tablebase.UNKNOWN);
+
+			Random rnd = new Random(25);
+			int[] moves = new int[MoveGenerator.maxMoves(shape)];
+			int covered = 0;
+			int lost = 0;
+			for (int trial = 0; trial < TRIALS; trial++) {
+				BoardState board = nearWin(shape, depth, rnd);
+				int value = probe.lookup(board);
+				if (value == Tablebase.UNKNOWN) {
+					throw new AssertionError("position not covered");
+				}
+				covered++;
+				if (value == Tablebase.LOST) {
+					lost++;
+				}
+				if (value != best(probe, board, moves)) {
+					throw new AssertionError("distance does not follow from "
+							+ "the next positions");
+				}
+			}
+			check(covered + " positions agree with their moves, " + lost
+					+ " lost", covered == TRIALS);
+
+			BoardState board = new BoardState(shape);
+			board.deal(rnd);
+			check("too many cards out of place",
+					probe.lookup(board) == Tablebase.UNKNOWN);
+
+			check("missing file", new Tablebase(new File(file.getPath()
+					+ ".missing")).newProbe().lookup(new BoardState(shape))
+					== Tablebase.UNKNOWN);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return a position with at most depth cards out of the runs, made by
+	 *  moving cards and blank spaces around the ends of the rows of a won
+	 *  board, with its rows in a random order
+	 */
+	private static BoardState nearWin(BoardShape shape, int depth,
+			Random rnd) {
+		BoardState board = new BoardState(shape);
+		int columns = shape.getColumns();
+		int suits = shape.getSuits();
+		// only the last card and the blank space of a row leave its run
+		int swaps = rnd.nextInt(6);
+		for (int i = 0; i < swaps; i++) {
+			int a = rnd.nextInt(suits) * columns + columns - 1
+					- rnd.nextInt(2);
+			int b = rnd.nextInt(suits) * columns + columns - 1
+					- rnd.nextInt(2);
+			board.swap(a, b);
+		}
+		if (board.countLocked() < suits * shape.getRanks() - depth) {
+			throw new AssertionError("position too far from a win");
+		}
+		// rows in another order
+		int from = rnd.nextInt(suits);
+		int to = rnd.nextInt(suits);
+		for (int col = 0; col < columns; col++) {
+			board.swap(from * columns + col, to * columns + col);
+		}
+		return board;
+	}
+
+	/**
+	 * @return what the table should hold for a position that is not won:
+	 *         one more than its nearest next position, or LOST if none can
+	 *         be won
+	 */
+	private static int best(Tablebase.Probe probe, BoardState board,
+			int[] moves) {
+		if (board.isWon()) {
+			return 0;
+		}
+		int best = Tablebase.LOST;
+		int count = MoveGenerator.generate(board, moves);
+		for (int m = 0; m < count; m++) {
+			int from = Solver.moveFrom(moves[m]);
+			int to = Solver.moveTo(moves[m]);
+			board.swap(from, to);
+			int value = probe.lookup(board);
+			board.swap(from, to);
+			if (value == Tablebase.UNKNOWN) {
+				throw new AssertionError("move leaves the table");
+			}
+			if (value >= 0 && (best == Tablebase.LOST || value + 1 < best)) {
+				best = value + 1;
+			}
+		}
+		return best;
+	}
+
+	private static void check(String name, boolean passed) {
+		if (!passed) {
+			throw new AssertionError(name);
+		}
+		System.out.println("ok  " + name);
+	}
+}